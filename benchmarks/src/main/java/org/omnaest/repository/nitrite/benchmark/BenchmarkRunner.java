@@ -0,0 +1,45 @@
+package org.omnaest.repository.nitrite.benchmark;
+
+import java.util.Arrays;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks once per thread count with the {@link GCProfiler} to report the allocation rate. The thread counts are given as
+ * comma separated list by the system property "benchmark.threads", default is "1,4,16". All other JMH command line options are passed
+ * through, e.g. "-p autoCommitMode=GROUP_COMMIT" or "-rf json".
+ * 
+ * @author omnaest
+ */
+public class BenchmarkRunner
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        int[] threadCounts = Arrays.stream(System.getProperty("benchmark.threads", "1,4,16")
+                                                 .split(","))
+                                   .map(String::trim)
+                                   .mapToInt(Integer::parseInt)
+                                   .toArray();
+        for (int threadCount : threadCounts)
+        {
+            ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions)
+                                                                .threads(threadCount)
+                                                                .addProfiler(GCProfiler.class);
+            if (commandLineOptions.getIncludes()
+                                  .isEmpty())
+            {
+                options.include(BenchmarkRunner.class.getPackage()
+                                                     .getName()
+                        + ".*");
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.omnaest.repository.nitrite.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.repository.nitrite.NitriteIndexElementRepository;
+import org.omnaest.repository.nitrite.NitriteRepositoryOptions;
+import org.omnaest.utils.optional.NullOptional;
+import org.omnaest.utils.repository.ElementRepository.IdOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the read and write operations of the {@link NitriteIndexElementRepository} and its base class
+ * {@link org.omnaest.repository.nitrite.NitriteElementRepository} for different payload sizes, numbers of keys, {@link AutoCommitMode}s and
+ * with and without compression of the store
+ * 
+ * @author omnaest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementRepositoryBenchmark
+{
+    private static final int BATCH_SIZE = 100;
+
+    @Param({ "64", "1024", "16384" })
+    private int payloadSize;
+
+    @Param({ "1000", "10000" })
+    private int keyCount;
+
+    @Param({ "COMMIT_AFTER_EACH_WRITE_OPERATION", "COMMIT_AFTER_1_SECOND", "GROUP_COMMIT" })
+    private AutoCommitMode autoCommitMode;
+
+    @Param({ "true", "false" })
+    private boolean compressed;
+
+    private File                                  file;
+    private NitriteIndexElementRepository<Payload> repository;
+    private Payload                               payload;
+    private List<Payload>                         batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        Random random = new Random(0);
+        this.file = File.createTempFile("nitrite-benchmark", ".db");
+        this.file.delete();
+        this.repository = new NitriteIndexElementRepository<>(Payload.class, this.file,
+                                                              new NitriteRepositoryOptions().withCompression(this.compressed))
+                                                                                                                              .usingAutoCommit(this.autoCommitMode);
+        this.payload = Payload.of(0, this.payloadSize, random);
+        this.batch = IntStream.range(0, BATCH_SIZE)
+                              .mapToObj(index -> Payload.of(index, this.payloadSize, random))
+                              .collect(Collectors.toList());
+        this.repository.putAll(LongStream.range(0, this.keyCount)
+                                         .boxed()
+                                         .collect(Collectors.toMap(id -> id, id -> Payload.of(id, this.payloadSize, random))));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        this.repository.close();
+        this.file.delete();
+    }
+
+    private long randomId()
+    {
+        return ThreadLocalRandom.current()
+                                .nextLong(this.keyCount);
+    }
+
+    @Benchmark
+    public NullOptional<Payload> get()
+    {
+        return this.repository.get(this.randomId());
+    }
+
+    @Benchmark
+    public Map<Long, Payload> getAll()
+    {
+        long from = ThreadLocalRandom.current()
+                                     .nextLong(Math.max(1, this.keyCount - BATCH_SIZE));
+        return this.repository.getAll(LongStream.range(from, from + BATCH_SIZE)
+                                                .boxed()
+                                                .collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public void put()
+    {
+        this.repository.put(this.randomId(), this.payload);
+    }
+
+    @Benchmark
+    public void putAll()
+    {
+        long from = ThreadLocalRandom.current()
+                                     .nextLong(Math.max(1, this.keyCount - BATCH_SIZE));
+        Map<Long, Payload> entries = new LinkedHashMap<>();
+        for (int ii = 0; ii < BATCH_SIZE; ii++)
+        {
+            entries.put(from + ii, this.batch.get(ii));
+        }
+        this.repository.putAll(entries);
+    }
+
+    /**
+     * Removes one element and puts {@value #BATCH_SIZE} elements as individual operations, each with its own commit depending on the
+     * {@link AutoCommitMode}
+     */
+    @Benchmark
+    public void removeAndPutIndividually()
+    {
+        long from = ThreadLocalRandom.current()
+                                     .nextLong(Math.max(1, this.keyCount - BATCH_SIZE));
+        this.repository.remove(from);
+        for (int ii = 0; ii < BATCH_SIZE; ii++)
+        {
+            this.repository.put(from + ii, this.batch.get(ii));
+        }
+    }
+
+    /**
+     * Same write operations as {@link #removeAndPutIndividually()} within a single transaction
+     */
+    @Benchmark
+    public void removeAndPutInTransaction()
+    {
+        long from = ThreadLocalRandom.current()
+                                     .nextLong(Math.max(1, this.keyCount - BATCH_SIZE));
+        this.repository.inTransaction(transaction ->
+        {
+            transaction.remove(from);
+            for (int ii = 0; ii < BATCH_SIZE; ii++)
+            {
+                transaction.put(from + ii, this.batch.get(ii));
+            }
+        });
+    }
+
+    @Benchmark
+    @Measurement(iterations = 5, batchSize = 10)
+    public List<Long> addAll()
+    {
+        return this.repository.addAll(this.batch.stream())
+                              .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public long ids()
+    {
+        return this.repository.ids(IdOrder.ARBITRARY)
+                              .count();
+    }
+}
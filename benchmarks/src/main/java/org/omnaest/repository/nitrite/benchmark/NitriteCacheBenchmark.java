@@ -0,0 +1,103 @@
+package org.omnaest.repository.nitrite.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.omnaest.repository.nitrite.NitriteCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link NitriteCache} read, write and compute paths with and without the on-heap element cache
+ * 
+ * @author omnaest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NitriteCacheBenchmark
+{
+    @Param({ "64", "1024", "16384" })
+    private int payloadSize;
+
+    @Param({ "1000", "10000" })
+    private int keyCount;
+
+    @Param({ "0", "1000" })
+    private int elementCacheSize;
+
+    private File         file;
+    private NitriteCache cache;
+    private Payload      payload;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        Random random = new Random(0);
+        this.file = File.createTempFile("nitrite-cache-benchmark", ".db");
+        this.file.delete();
+        this.cache = new NitriteCache(this.file);
+        if (this.elementCacheSize > 0)
+        {
+            this.cache.withElementCache(this.elementCacheSize);
+        }
+        this.payload = Payload.of(0, this.payloadSize, random);
+        IntStream.range(0, this.keyCount)
+                 .forEach(index -> this.cache.put(String.valueOf(index), Payload.of(index, this.payloadSize, random)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        this.cache.close();
+        this.file.delete();
+    }
+
+    private String randomKey()
+    {
+        return String.valueOf(ThreadLocalRandom.current()
+                                               .nextInt(this.keyCount));
+    }
+
+    @Benchmark
+    public Payload getHit()
+    {
+        return this.cache.get(this.randomKey(), Payload.class);
+    }
+
+    @Benchmark
+    public Payload getMiss()
+    {
+        return this.cache.get("missing" + this.randomKey(), Payload.class);
+    }
+
+    @Benchmark
+    public void put()
+    {
+        this.cache.put(this.randomKey(), this.payload);
+    }
+
+    @Benchmark
+    public Payload computeIfAbsent()
+    {
+        return this.cache.computeIfAbsent(this.randomKey(), () -> this.payload, Payload.class);
+    }
+}
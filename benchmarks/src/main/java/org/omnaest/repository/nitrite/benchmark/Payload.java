@@ -0,0 +1,66 @@
+package org.omnaest.repository.nitrite.benchmark;
+
+import java.util.Random;
+
+/**
+ * Simple element type with a configurable size used by the benchmarks
+ * 
+ * @author omnaest
+ */
+public class Payload
+{
+    private long   number;
+    private String data;
+
+    public Payload()
+    {
+        super();
+    }
+
+    public Payload(long number, String data)
+    {
+        super();
+        this.number = number;
+        this.data = data;
+    }
+
+    public long getNumber()
+    {
+        return this.number;
+    }
+
+    public Payload setNumber(long number)
+    {
+        this.number = number;
+        return this;
+    }
+
+    public String getData()
+    {
+        return this.data;
+    }
+
+    public Payload setData(String data)
+    {
+        this.data = data;
+        return this;
+    }
+
+    /**
+     * Returns a new {@link Payload} with random data of the given size in characters
+     * 
+     * @param number
+     * @param size
+     * @param random
+     * @return
+     */
+    public static Payload of(long number, int size, Random random)
+    {
+        char[] data = new char[size];
+        for (int ii = 0; ii < size; ii++)
+        {
+            data[ii] = (char) ('a' + random.nextInt(26));
+        }
+        return new Payload(number, new String(data));
+    }
+}
@@ -0,0 +1,315 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.dizitart.no2.SortOrder;
+import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.utils.ExceptionUtils;
+import org.omnaest.utils.optional.NullOptional;
+import org.reactivestreams.Publisher;
+
+/**
+ * Non blocking facade of a {@link NitriteElementRepository}. All operations are executed on a bounded I/O {@link Executor} and return a
+ * {@link CompletableFuture}, scans are returned as reactive streams {@link Publisher}, which can be adapted to a java.util.concurrent.Flow
+ * publisher on newer JDKs.<br>
+ * <br>
+ * Concurrent {@link #get(Comparable)} calls for the same id are coalesced into a single read. Write operations complete as soon as they have
+ * been committed to the store, so they fail with an {@link IllegalStateException} if the repository uses
+ * {@link AutoCommitMode#AUTOCOMMIT_DISABLED}.
+ * 
+ * @author omnaest
+ * @param <I>
+ * @param <D>
+ */
+public class AsyncElementRepository<I extends Comparable<I>, D> implements AutoCloseable
+{
+    private NitriteElementRepository<I, D>             repository;
+    private volatile Executor                          executor;
+    private volatile ExecutorService                   ownedExecutor;
+    private Map<I, CompletableFuture<NullOptional<D>>> pendingReads = new ConcurrentHashMap<>();
+
+    /**
+     * Uses a bounded thread pool with one thread per available processor and a queue of 10000 operations
+     * 
+     * @see #usingBoundedExecutor(int, int)
+     * @param repository
+     */
+    public AsyncElementRepository(NitriteElementRepository<I, D> repository)
+    {
+        super();
+        this.repository = repository;
+        this.usingBoundedExecutor(Runtime.getRuntime()
+                                         .availableProcessors(),
+                                  10000);
+    }
+
+    /**
+     * Executes all operations on a thread pool with the given number of threads. Operations which exceed the queue capacity fail with a
+     * {@link RejectedExecutionException}.
+     * 
+     * @param numberOfThreads
+     * @param queueCapacity
+     * @return
+     */
+    public AsyncElementRepository<I, D> usingBoundedExecutor(int numberOfThreads, int queueCapacity)
+    {
+        AtomicInteger threadCounter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 60, TimeUnit.SECONDS,
+                                                             new ArrayBlockingQueue<>(queueCapacity), runnable ->
+                                                             {
+                                                                 Thread thread = new Thread(runnable,
+                                                                                            "NitriteAsyncIO-" + threadCounter.incrementAndGet());
+                                                                 thread.setDaemon(true);
+                                                                 return thread;
+                                                             });
+        executor.allowCoreThreadTimeOut(true);
+        return this.usingOwnedExecutor(executor);
+    }
+
+    /**
+     * Executes each operation on its own virtual thread, which requires Java 21 or newer. The number of concurrent operations is not bounded,
+     * but the store itself serializes concurrent writes.
+     * 
+     * @throws UnsupportedOperationException
+     *             if the JDK does not support virtual threads
+     * @return
+     */
+    public AsyncElementRepository<I, D> usingVirtualThreads()
+    {
+        ExecutorService executor;
+        try
+        {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                                                        .invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JDK", e);
+        }
+        return this.usingOwnedExecutor(executor);
+    }
+
+    /**
+     * Executes all operations on the given {@link Executor}, which is not shut down by {@link #close()}
+     * 
+     * @param executor
+     * @return
+     */
+    public AsyncElementRepository<I, D> usingExecutor(Executor executor)
+    {
+        this.shutdownOwnedExecutor();
+        this.executor = executor;
+        return this;
+    }
+
+    private AsyncElementRepository<I, D> usingOwnedExecutor(ExecutorService executor)
+    {
+        this.usingExecutor(executor);
+        this.ownedExecutor = executor;
+        return this;
+    }
+
+    private void shutdownOwnedExecutor()
+    {
+        ExecutorService ownedExecutor = this.ownedExecutor;
+        this.ownedExecutor = null;
+        if (ownedExecutor != null)
+        {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the element with the given id. Concurrent calls for the same id share a single read of the store.
+     * 
+     * @param id
+     * @return
+     */
+    public CompletableFuture<NullOptional<D>> get(I id)
+    {
+        CompletableFuture<NullOptional<D>> newRead = new CompletableFuture<>();
+        CompletableFuture<NullOptional<D>> read = this.pendingReads.putIfAbsent(id, newRead);
+        if (read == null)
+        {
+            read = newRead;
+            this.supplyAsync(() -> this.repository.get(id))
+                .whenComplete((element, exception) ->
+                {
+                    this.pendingReads.remove(id, newRead);
+                    if (exception != null)
+                    {
+                        newRead.completeExceptionally(exception);
+                    }
+                    else
+                    {
+                        newRead.complete(element);
+                    }
+                });
+        }
+
+        // every caller gets its own future, so cancelling it does not affect other callers
+        return read.thenApply(element -> element);
+    }
+
+    public CompletableFuture<Map<I, D>> getAll(Collection<I> ids)
+    {
+        return this.supplyAsync(() -> this.repository.getAll(ids));
+    }
+
+    /**
+     * Puts the given element and completes as soon as it has been committed to the store
+     * 
+     * @param id
+     * @param element
+     * @return
+     */
+    public CompletableFuture<Void> put(I id, D element)
+    {
+        this.pendingReads.remove(id);
+        return this.supplyCommittedAsync(() -> this.repository.putAcknowledged(id, element));
+    }
+
+    /**
+     * Puts all the given elements and completes as soon as they have been committed to the store
+     * 
+     * @param elements
+     * @return
+     */
+    public CompletableFuture<Void> putAll(Map<I, D> elements)
+    {
+        elements.keySet()
+                .forEach(this.pendingReads::remove);
+        return this.supplyCommittedAsync(() ->
+        {
+            this.repository.putAll(elements);
+            return this.repository.acknowledgeCommit();
+        });
+    }
+
+    /**
+     * Adds the given element and completes with the generated id as soon as it has been committed to the store
+     * 
+     * @param element
+     * @return
+     */
+    public CompletableFuture<I> add(D element)
+    {
+        return this.supplyCommittedAsync(() -> this.repository.addAcknowledged(element));
+    }
+
+    /**
+     * Removes the element with the given id and completes as soon as the removal has been committed to the store
+     * 
+     * @param id
+     * @return
+     */
+    public CompletableFuture<Void> remove(I id)
+    {
+        this.pendingReads.remove(id);
+        return this.supplyCommittedAsync(() -> this.repository.removeAcknowledged(id));
+    }
+
+    /**
+     * Returns a {@link Publisher} of all ids in the given {@link SortOrder}. Each subscriber scans the id index on its own.
+     * 
+     * @see NitriteElementRepository#ids(SortOrder)
+     * @param sortOrder
+     * @return
+     */
+    public Publisher<I> ids(SortOrder sortOrder)
+    {
+        return new StreamPublisher<>(() -> this.repository.ids(sortOrder), this.executor);
+    }
+
+    /**
+     * @see NitriteElementRepository#idsBetween(Comparable, Comparable, SortOrder)
+     * @param from
+     * @param to
+     * @param sortOrder
+     * @return
+     */
+    public Publisher<I> idsBetween(I from, I to, SortOrder sortOrder)
+    {
+        return new StreamPublisher<>(() -> this.repository.idsBetween(from, to, sortOrder), this.executor);
+    }
+
+    /**
+     * @see NitriteElementRepository#valuesBetween(Comparable, Comparable)
+     * @param from
+     * @param to
+     * @return
+     */
+    public Publisher<D> valuesBetween(I from, I to)
+    {
+        return new StreamPublisher<>(() -> this.repository.valuesBetween(from, to), this.executor);
+    }
+
+    /**
+     * Executes the given write operation and completes with its acknowledgement. Without an automatic commit the acknowledgement would only
+     * complete on the next explicit commit, so the write operation is rejected before it is applied.
+     * 
+     * @param operation
+     * @return
+     */
+    private <R> CompletableFuture<R> supplyCommittedAsync(Supplier<CompletableFuture<R>> operation)
+    {
+        Supplier<CompletableFuture<R>> committedOperation = () ->
+        {
+            if (AutoCommitMode.AUTOCOMMIT_DISABLED.equals(this.repository.getAutoCommitMode()))
+            {
+                throw new IllegalStateException("Write operations can not be acknowledged with AutoCommitMode.AUTOCOMMIT_DISABLED");
+            }
+            return operation.get();
+        };
+        return this.supplyAsync(committedOperation)
+                   .thenCompose(acknowledgement -> acknowledgement);
+    }
+
+    private <R> CompletableFuture<R> supplyAsync(Supplier<R> operation)
+    {
+        try
+        {
+            return CompletableFuture.supplyAsync(operation, this.executor);
+        }
+        catch (RejectedExecutionException e)
+        {
+            CompletableFuture<R> retval = new CompletableFuture<>();
+            retval.completeExceptionally(e);
+            return retval;
+        }
+    }
+
+    /**
+     * Waits for all pending operations and shuts down the executor, if it has not been given by {@link #usingExecutor(Executor)}. The
+     * underlying {@link NitriteElementRepository} is not closed.
+     */
+    @Override
+    public void close()
+    {
+        ExecutorService ownedExecutor = this.ownedExecutor;
+        this.shutdownOwnedExecutor();
+        if (ownedExecutor != null)
+        {
+            ExceptionUtils.executeSilentVoid(() -> ownedExecutor.awaitTermination(10, TimeUnit.MINUTES));
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AsyncElementRepository [" + this.repository + "]";
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Helper to split {@link Stream}s into chunks for bulk operations
+ * 
+ * @author omnaest
+ */
+class BatchUtils
+{
+    private BatchUtils()
+    {
+    }
+
+    /**
+     * Returns a lazy {@link Stream} of chunks with the given maximum size. The source {@link Stream} is only consumed as far as the returned
+     * {@link Stream} is consumed, so at most one chunk is held in memory at a time.
+     * 
+     * @param elements
+     * @param chunkSize
+     * @return
+     */
+    public static <E> Stream<List<E>> chunked(Stream<E> elements, int chunkSize)
+    {
+        if (chunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+
+        Iterator<E> iterator = elements.iterator();
+        Iterator<List<E>> chunkIterator = new Iterator<List<E>>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public List<E> next()
+            {
+                if (!iterator.hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+
+                List<E> chunk = new ArrayList<>(Math.min(chunkSize, 1024));
+                while (chunk.size() < chunkSize && iterator.hasNext())
+                {
+                    chunk.add(iterator.next());
+                }
+                return chunk;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunkIterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(elements::close);
+    }
+}
@@ -0,0 +1,27 @@
+package org.omnaest.repository.nitrite;
+
+/**
+ * Codec which converts the values of a {@link NitriteCache} into a serialized payload and back
+ * 
+ * @see JacksonCacheValueCodec
+ * @author omnaest
+ */
+public interface CacheValueCodec
+{
+    /**
+     * Serializes the given value, which is not null
+     * 
+     * @param value
+     * @return
+     */
+    public byte[] encode(Object value);
+
+    /**
+     * Deserializes the given payload directly into an instance of the given type
+     * 
+     * @param payload
+     * @param type
+     * @return
+     */
+    public <V> V decode(byte[] payload, Class<V> type);
+}
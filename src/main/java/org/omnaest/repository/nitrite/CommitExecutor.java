@@ -0,0 +1,194 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.dizitart.no2.Nitrite;
+import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics;
+import org.omnaest.utils.ExceptionUtils;
+import org.omnaest.utils.ThreadUtils;
+import org.omnaest.utils.lock.SynchronizedAtLeastOneTimeExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Commits the store of a {@link NitriteElementRepository} according to its {@link AutoCommitMode} and acknowledges the write operations
+ * which have been waiting for a commit
+ * 
+ * @author omnaest
+ */
+class CommitExecutor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CommitExecutor.class);
+
+    private AutoCommitMode                     autoCommitMode          = AutoCommitMode.COMMIT_AFTER_EACH_WRITE_OPERATION;
+    private Supplier<Nitrite>                  database;
+    private SynchronizedAtLeastOneTimeExecutor onlyOneTimeExecutor;
+    private Queue<CompletableFuture<Void>>     pendingAcknowledgements = new ConcurrentLinkedQueue<>();
+    private long                               groupCommitWindow       = 10;
+    private TimeUnit                           groupCommitTimeUnit     = TimeUnit.MILLISECONDS;
+    private int                                groupCommitMaxBatchSize = 1000;
+    private GroupCommitter                     groupCommitter;
+    private ExecutorService                    groupCommitExecutor;
+    private List<Runnable>                     preCommitListeners      = new CopyOnWriteArrayList<>();
+    private File                               file;
+    private RepositoryMetrics                  metrics                 = RepositoryMetrics.NOOP;
+
+    public CommitExecutor(Supplier<Nitrite> database, File file)
+    {
+        super();
+        this.database = database;
+        this.file = file;
+
+        int numberOfThreads = 10 * Runtime.getRuntime()
+                                          .availableProcessors();
+        this.onlyOneTimeExecutor = new SynchronizedAtLeastOneTimeExecutor(Executors.newFixedThreadPool(numberOfThreads), () ->
+        {
+            ThreadUtils.sleepSilently(1, TimeUnit.SECONDS);
+            LOG.debug("Autocommit...");
+            this.commitImmediate();
+            LOG.debug("...done");
+        });
+    }
+
+    /**
+     * Triggers a commit depending on the {@link AutoCommitMode}
+     */
+    public void commit()
+    {
+        if (AutoCommitMode.COMMIT_AFTER_EACH_WRITE_OPERATION.equals(this.autoCommitMode))
+        {
+            this.commitImmediate();
+        }
+        else if (AutoCommitMode.COMMIT_AFTER_1_SECOND.equals(this.autoCommitMode))
+        {
+            this.onlyOneTimeExecutor.fire();
+        }
+        else if (AutoCommitMode.GROUP_COMMIT.equals(this.autoCommitMode))
+        {
+            this.getGroupCommitter()
+                .signal();
+        }
+    }
+
+    /**
+     * Similar to {@link #commit()} but returns a {@link CompletableFuture} which is completed as soon as the write operations before this
+     * call are committed to the store. With {@link AutoCommitMode#AUTOCOMMIT_DISABLED} this is only the case for the next explicit commit,
+     * e.g. on {@link #close()}.
+     * 
+     * @return
+     */
+    public CompletableFuture<Void> commitAndAcknowledge()
+    {
+        CompletableFuture<Void> acknowledgement = new CompletableFuture<>();
+        this.pendingAcknowledgements.add(acknowledgement);
+        this.commit();
+        return acknowledgement;
+    }
+
+    public void addPreCommitListener(Runnable listener)
+    {
+        this.preCommitListeners.add(listener);
+    }
+
+    public void setMetrics(RepositoryMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public void setAutoCommitMode(AutoCommitMode autoCommitMode)
+    {
+        this.autoCommitMode = autoCommitMode;
+    }
+
+    public AutoCommitMode getAutoCommitMode()
+    {
+        return this.autoCommitMode;
+    }
+
+    public synchronized void setGroupCommitThresholds(long window, TimeUnit timeUnit, int maxBatchSize)
+    {
+        this.groupCommitWindow = window;
+        this.groupCommitTimeUnit = timeUnit;
+        this.groupCommitMaxBatchSize = maxBatchSize;
+        if (this.groupCommitter != null)
+        {
+            this.groupCommitter.setThresholds(timeUnit.toNanos(window), maxBatchSize);
+        }
+    }
+
+    private synchronized GroupCommitter getGroupCommitter()
+    {
+        if (this.groupCommitter == null)
+        {
+            this.groupCommitter = new GroupCommitter(() -> this.commitImmediate(), this.groupCommitTimeUnit.toNanos(this.groupCommitWindow),
+                                                     this.groupCommitMaxBatchSize);
+            this.groupCommitExecutor = Executors.newSingleThreadExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, "NitriteGroupCommitter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.groupCommitExecutor.submit(this.groupCommitter);
+        }
+        return this.groupCommitter;
+    }
+
+    public void close()
+    {
+        this.onlyOneTimeExecutor.shutdown()
+                                .awaitTermination(10, TimeUnit.MINUTES);
+        synchronized (this)
+        {
+            if (this.groupCommitter != null)
+            {
+                this.groupCommitter.shutdown();
+                this.groupCommitExecutor.shutdown();
+                ExceptionUtils.executeSilentVoid(() -> this.groupCommitExecutor.awaitTermination(10, TimeUnit.MINUTES));
+            }
+        }
+        this.commitImmediate();
+    }
+
+    public void commitImmediate()
+    {
+        List<CompletableFuture<Void>> acknowledgements = new ArrayList<>();
+        for (CompletableFuture<Void> acknowledgement = this.pendingAcknowledgements.poll(); acknowledgement != null; acknowledgement = this.pendingAcknowledgements.poll())
+        {
+            acknowledgements.add(acknowledgement);
+        }
+
+        long start = System.nanoTime();
+        try
+        {
+            this.preCommitListeners.forEach(Runnable::run);
+            this.database.get()
+                         .commit();
+        }
+        catch (RuntimeException e)
+        {
+            acknowledgements.forEach(acknowledgement -> acknowledgement.completeExceptionally(e));
+            throw e;
+        }
+        finally
+        {
+            this.metrics.recordCommit(acknowledgements.size(), System.nanoTime() - start);
+        }
+        if (this.file != null)
+        {
+            this.metrics.recordStoreFileSize(this.file.length());
+        }
+        acknowledgements.forEach(acknowledgement -> acknowledgement.complete(null));
+    }
+
+}
@@ -0,0 +1,366 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+import org.omnaest.utils.optional.NullOptional;
+
+/**
+ * Bounded on-heap least recently used cache for the elements of a {@link NitriteElementRepository}. The cache evicts entries if either the
+ * maximum number of entries or the maximum total weight is exceeded.<br>
+ * <br>
+ * The ids are distributed by their hash code across independently locked segments, so that concurrent cache hits of different segments do
+ * not contend for the same lock. Each segment is bounded by its share of the maximum size and weight and evicts its own least recently used
+ * entries, so the least recently used order is only kept per segment. Small caches use a single segment.<br>
+ * <br>
+ * Every invalidation increments a generation counter, so that a read which started before a concurrent write can not put a stale element
+ * into the cache, see {@link #putIfGenerationUnchanged(Object, NullOptional, long)}.
+ * 
+ * @author omnaest
+ * @param <I>
+ * @param <D>
+ */
+public class ElementCache<I, D>
+{
+    private static final int MAXIMUM_SEGMENTS         = 16;
+    private static final int MINIMUM_SEGMENT_CAPACITY = 64;
+
+    private ToLongFunction<D> weigher;
+    private Segment<I, D>[]   segments;
+    private AtomicLong        generation = new AtomicLong();
+    private LongAdder         hits       = new LongAdder();
+    private LongAdder         misses     = new LongAdder();
+    private LongAdder         evictions  = new LongAdder();
+
+    private static class WeightedElement<D>
+    {
+        private NullOptional<D> element;
+        private long            weight;
+
+        public WeightedElement(NullOptional<D> element, long weight)
+        {
+            super();
+            this.element = element;
+            this.weight = weight;
+        }
+
+        public NullOptional<D> getElement()
+        {
+            return this.element;
+        }
+
+        public long getWeight()
+        {
+            return this.weight;
+        }
+
+    }
+
+    /**
+     * Least recently used part of the cache with its own lock
+     * 
+     * @author omnaest
+     * @param <I>
+     * @param <D>
+     */
+    private static class Segment<I, D>
+    {
+        private long                                 maximumSize;
+        private long                                 maximumWeight;
+        private LinkedHashMap<I, WeightedElement<D>> elements = new LinkedHashMap<>(16, 0.75f, true);
+        private long                                 weight   = 0;
+
+        public Segment(long maximumSize, long maximumWeight)
+        {
+            super();
+            this.maximumSize = maximumSize;
+            this.maximumWeight = maximumWeight;
+        }
+
+        public synchronized WeightedElement<D> get(I id)
+        {
+            return this.elements.get(id);
+        }
+
+        /**
+         * Puts the given element, if the given generation is still the current one, and returns the number of evicted entries
+         * 
+         * @param id
+         * @param weightedElement
+         * @param generation
+         * @param currentGeneration
+         * @return
+         */
+        public synchronized int putIfGenerationUnchanged(I id, WeightedElement<D> weightedElement, long generation, AtomicLong currentGeneration)
+        {
+            if (currentGeneration.get() != generation)
+            {
+                return 0;
+            }
+
+            WeightedElement<D> previous = this.elements.put(id, weightedElement);
+            if (previous != null)
+            {
+                this.weight -= previous.getWeight();
+            }
+            this.weight += weightedElement.getWeight();
+            return this.evict();
+        }
+
+        private int evict()
+        {
+            int evictions = 0;
+            Iterator<Entry<I, WeightedElement<D>>> iterator = this.elements.entrySet()
+                                                                           .iterator();
+            while ((this.elements.size() > this.maximumSize || this.weight > this.maximumWeight) && iterator.hasNext())
+            {
+                this.weight -= iterator.next()
+                                       .getValue()
+                                       .getWeight();
+                iterator.remove();
+                evictions++;
+            }
+            return evictions;
+        }
+
+        public synchronized void remove(I id)
+        {
+            WeightedElement<D> previous = this.elements.remove(id);
+            if (previous != null)
+            {
+                this.weight -= previous.getWeight();
+            }
+        }
+
+        public synchronized void clear()
+        {
+            this.elements.clear();
+            this.weight = 0;
+        }
+
+        public synchronized long size()
+        {
+            return this.elements.size();
+        }
+
+        public synchronized long getWeight()
+        {
+            return this.weight;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters
+     * 
+     * @author omnaest
+     */
+    public static class Statistics
+    {
+        private long hits;
+        private long misses;
+        private long evictions;
+        private long size;
+        private long weight;
+
+        public Statistics(long hits, long misses, long evictions, long size, long weight)
+        {
+            super();
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        public long getHits()
+        {
+            return this.hits;
+        }
+
+        public long getMisses()
+        {
+            return this.misses;
+        }
+
+        public long getEvictions()
+        {
+            return this.evictions;
+        }
+
+        public long getSize()
+        {
+            return this.size;
+        }
+
+        public long getWeight()
+        {
+            return this.weight;
+        }
+
+        public double getHitRate()
+        {
+            long requests = this.hits + this.misses;
+            return requests > 0 ? this.hits / (double) requests : 0.0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Statistics [hits=" + this.hits + ", misses=" + this.misses + ", evictions=" + this.evictions + ", size=" + this.size + ", weight="
+                    + this.weight + "]";
+        }
+
+    }
+
+    /**
+     * @param maximumSize
+     *            maximum number of cached elements
+     * @param maximumWeight
+     *            maximum sum of all element weights
+     * @param weigher
+     *            determines the weight of a single non null element
+     */
+    @SuppressWarnings("unchecked")
+    public ElementCache(long maximumSize, long maximumWeight, ToLongFunction<D> weigher)
+    {
+        super();
+        this.weigher = weigher;
+
+        int numberOfSegments = 1;
+        while (numberOfSegments < MAXIMUM_SEGMENTS && maximumSize / (numberOfSegments * 2) >= MINIMUM_SEGMENT_CAPACITY)
+        {
+            numberOfSegments *= 2;
+        }
+        this.segments = (Segment<I, D>[]) new Segment<?, ?>[numberOfSegments];
+        for (int index = 0; index < numberOfSegments; index++)
+        {
+            this.segments[index] = new Segment<>(divideRoundingUp(maximumSize, numberOfSegments), divideRoundingUp(maximumWeight, numberOfSegments));
+        }
+    }
+
+    private static long divideRoundingUp(long value, int divisor)
+    {
+        return value / divisor + (value % divisor > 0 ? 1 : 0);
+    }
+
+    private Segment<I, D> getSegment(I id)
+    {
+        int hash = id.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+    }
+
+    /**
+     * Returns the cached element or null, if the cache does not contain the given id. A returned empty {@link NullOptional} means that the
+     * element is known to be not present in the repository.
+     * 
+     * @param id
+     * @return
+     */
+    public NullOptional<D> get(I id)
+    {
+        WeightedElement<D> weightedElement = this.getSegment(id)
+                                                 .get(id);
+        if (weightedElement != null)
+        {
+            this.hits.increment();
+            return weightedElement.getElement();
+        }
+        else
+        {
+            this.misses.increment();
+            return null;
+        }
+    }
+
+    public long getGeneration()
+    {
+        return this.generation.get();
+    }
+
+    /**
+     * Puts the given element into the cache, if no invalidation happened since the given generation has been retrieved by
+     * {@link #getGeneration()}
+     * 
+     * @param id
+     * @param element
+     * @param generation
+     */
+    public void putIfGenerationUnchanged(I id, NullOptional<D> element, long generation)
+    {
+        if (this.generation.get() == generation)
+        {
+            D value = element.orElse(null);
+            long elementWeight = value != null ? Math.max(0, this.weigher.applyAsLong(value)) : 0;
+
+            // the generation is checked again within the lock of the segment, which is also held by the removal of an invalidation
+            int evictions = this.getSegment(id)
+                                .putIfGenerationUnchanged(id, new WeightedElement<>(element, elementWeight), generation, this.generation);
+            if (evictions > 0)
+            {
+                this.evictions.add(evictions);
+            }
+        }
+    }
+
+    public void invalidate(I id)
+    {
+        this.generation.incrementAndGet();
+        this.getSegment(id)
+            .remove(id);
+    }
+
+    public void invalidateAll(Collection<I> ids)
+    {
+        this.generation.incrementAndGet();
+        ids.forEach(id -> this.getSegment(id)
+                              .remove(id));
+    }
+
+    public void clear()
+    {
+        this.generation.incrementAndGet();
+        for (Segment<I, D> segment : this.segments)
+        {
+            segment.clear();
+        }
+    }
+
+    public Statistics getStatistics()
+    {
+        long size = 0;
+        long weight = 0;
+        for (Segment<I, D> segment : this.segments)
+        {
+            size += segment.size();
+            weight += segment.getWeight();
+        }
+        return new Statistics(this.hits.sum(), this.misses.sum(), this.evictions.sum(), size, weight);
+    }
+
+    /**
+     * Returns all cached elements for the given ids, the ids which are not cached are not contained in the returned {@link Map}
+     * 
+     * @param ids
+     * @return
+     */
+    public Map<I, NullOptional<D>> getAll(Collection<I> ids)
+    {
+        Map<I, NullOptional<D>> retmap = new LinkedHashMap<>();
+        for (I id : ids)
+        {
+            NullOptional<D> element = this.get(id);
+            if (element != null)
+            {
+                retmap.put(id, element);
+            }
+        }
+        return retmap;
+    }
+
+}
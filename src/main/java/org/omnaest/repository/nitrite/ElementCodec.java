@@ -0,0 +1,32 @@
+package org.omnaest.repository.nitrite;
+
+import org.dizitart.no2.Document;
+
+/**
+ * Codec which converts the elements of a {@link NitriteElementRepository} into the value stored within the element field of each
+ * {@link Document} and back. The stored value must be either a {@link Document}, so that its fields can be indexed, or a value like a
+ * {@link String} or {@link Number}. Implementations must be thread safe.
+ * 
+ * @see JacksonElementCodec
+ * @see NitriteElementRepository#withElementCodec(ElementCodec)
+ * @author omnaest
+ * @param <D>
+ */
+public interface ElementCodec<D>
+{
+    /**
+     * Converts the given element, which is not null, into the stored value
+     * 
+     * @param element
+     * @return
+     */
+    public Object encode(D element);
+
+    /**
+     * Converts the given stored value, which is not null, back into an element
+     * 
+     * @param value
+     * @return
+     */
+    public D decode(Object value);
+}
@@ -0,0 +1,133 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single committer loop which coalesces all write operations arriving within a time window, or until a maximum batch size is reached, into
+ * one commit
+ * 
+ * @author omnaest
+ */
+class GroupCommitter implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private Runnable  committer;
+    private long      windowInNanos;
+    private int       maxBatchSize;
+    private Lock      lock          = new ReentrantLock();
+    private Condition writesArrived = this.lock.newCondition();
+    private int       pendingWrites = 0;
+    private boolean   running       = true;
+
+    public GroupCommitter(Runnable committer, long windowInNanos, int maxBatchSize)
+    {
+        super();
+        this.committer = committer;
+        this.windowInNanos = windowInNanos;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void signal()
+    {
+        this.lock.lock();
+        try
+        {
+            this.pendingWrites++;
+            if (this.pendingWrites == 1 || this.pendingWrites >= this.maxBatchSize)
+            {
+                this.writesArrived.signal();
+            }
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    public void setThresholds(long windowInNanos, int maxBatchSize)
+    {
+        this.lock.lock();
+        try
+        {
+            this.windowInNanos = windowInNanos;
+            this.maxBatchSize = maxBatchSize;
+            this.writesArrived.signalAll();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    public void shutdown()
+    {
+        this.lock.lock();
+        try
+        {
+            this.running = false;
+            this.writesArrived.signalAll();
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        while (this.awaitBatch())
+        {
+            try
+            {
+                this.committer.run();
+            }
+            catch (Exception e)
+            {
+                LOG.error("Group commit failed", e);
+            }
+        }
+    }
+
+    private boolean awaitBatch()
+    {
+        this.lock.lock();
+        try
+        {
+            while (this.pendingWrites == 0 && this.running)
+            {
+                this.writesArrived.await();
+            }
+            if (this.pendingWrites == 0)
+            {
+                return false;
+            }
+
+            long remainingNanos = this.windowInNanos;
+            while (this.running && this.pendingWrites < this.maxBatchSize && remainingNanos > 0)
+            {
+                remainingNanos = this.writesArrived.awaitNanos(remainingNanos);
+            }
+
+            LOG.debug("Group commit of " + this.pendingWrites + " write operations");
+            this.pendingWrites = 0;
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread()
+                  .interrupt();
+            return false;
+        }
+        finally
+        {
+            this.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * {@link CacheValueCodec} which serializes the values as JSON using Jackson
+ * 
+ * @author omnaest
+ */
+public class JacksonCacheValueCodec implements CacheValueCodec
+{
+    private ObjectMapper objectMapper;
+
+    public JacksonCacheValueCodec()
+    {
+        this(new ObjectMapper().setVisibility(PropertyAccessor.FIELD, Visibility.ANY)
+                               .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+                               .configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false));
+    }
+
+    public JacksonCacheValueCodec(ObjectMapper objectMapper)
+    {
+        super();
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public byte[] encode(Object value)
+    {
+        try
+        {
+            return this.objectMapper.writeValueAsBytes(value);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to serialize cache value", e);
+        }
+    }
+
+    @Override
+    public <V> V decode(byte[] payload, Class<V> type)
+    {
+        try
+        {
+            return this.objectMapper.readValue(payload, type);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to deserialize cache value", e);
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.dizitart.no2.Document;
+import org.dizitart.no2.exceptions.ErrorCodes;
+import org.dizitart.no2.exceptions.ErrorMessage;
+import org.dizitart.no2.exceptions.ObjectMappingException;
+import org.dizitart.no2.mapper.JacksonMapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * {@link ElementCodec} which uses the same Jackson configuration as the {@link JacksonMapper} of Nitrite, so that the stored
+ * {@link Document}s are compatible. The {@link ObjectReader} and {@link ObjectWriter} of the element type are resolved once, and elements
+ * are streamed through a {@link TokenBuffer} directly from and into the stored {@link Document}s without an intermediate tree.
+ * {@link String}, {@link Boolean} and the boxed number types are stored as they are.
+ * 
+ * @author omnaest
+ * @param <D>
+ */
+public class JacksonElementCodec<D> implements ElementCodec<D>
+{
+    private Class<D>            type;
+    private ObjectMapper        objectMapper;
+    private ObjectReader        reader;
+    private ObjectWriter        writer;
+    private Function<Number, D> numberConverter;
+    private boolean             storedAsIs;
+
+    public JacksonElementCodec(Class<D> type)
+    {
+        this(type, new JacksonMapper().getObjectMapper());
+    }
+
+    public JacksonElementCodec(Class<D> type, ObjectMapper objectMapper)
+    {
+        super();
+        this.type = type;
+        this.objectMapper = objectMapper;
+        this.reader = objectMapper.readerFor(type);
+
+        // the serializer can only be resolved in advance, if there are no subclasses of the element type
+        this.writer = Modifier.isFinal(type.getModifiers()) ? objectMapper.writerFor(type) : objectMapper.writer();
+        this.numberConverter = createNumberConverter(type);
+        this.storedAsIs = String.class.equals(type) || Boolean.class.equals(type) || Integer.class.equals(type) || Long.class.equals(type)
+                || Double.class.equals(type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <D> Function<Number, D> createNumberConverter(Class<D> type)
+    {
+        if (Integer.class.equals(type))
+        {
+            return number -> (D) Integer.valueOf(number.intValue());
+        }
+        else if (Long.class.equals(type))
+        {
+            return number -> (D) Long.valueOf(number.longValue());
+        }
+        else if (Double.class.equals(type))
+        {
+            return number -> (D) Double.valueOf(number.doubleValue());
+        }
+        else if (Float.class.equals(type))
+        {
+            return number -> (D) Float.valueOf(number.floatValue());
+        }
+        else if (Short.class.equals(type))
+        {
+            return number -> (D) Short.valueOf(number.shortValue());
+        }
+        else if (Byte.class.equals(type))
+        {
+            return number -> (D) Byte.valueOf(number.byteValue());
+        }
+        return null;
+    }
+
+    @Override
+    public Object encode(D element)
+    {
+        if (this.storedAsIs && this.type.isInstance(element))
+        {
+            return element;
+        }
+
+        try
+        {
+            TokenBuffer buffer = new TokenBuffer(this.objectMapper, false);
+            this.writer.writeValue(buffer, element);
+            JsonParser parser = buffer.asParser();
+            parser.nextToken();
+            return readStoredValue(parser);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw new ObjectMappingException(ErrorMessage.errorMessage("Unable to serialize element of type " + this.type.getName() + ": "
+                    + e.getMessage(), ErrorCodes.OME_SERIALIZE_TO_JSON_FAILED));
+        }
+    }
+
+    /**
+     * Serializes the given element only once. If its JSON bytes have at least the given threshold size, the stored value is created from them
+     * by the given function, otherwise the stored value is the same as of {@link #encode(Object)}.
+     * 
+     * @param element
+     * @param threshold
+     * @param bytesEncoder
+     * @return
+     */
+    Object encode(D element, int threshold, Function<byte[], Object> bytesEncoder)
+    {
+        if (this.storedAsIs && this.type.isInstance(element))
+        {
+            byte[] bytes = this.encodeToBytes(element);
+            return bytes.length >= threshold ? bytesEncoder.apply(bytes) : element;
+        }
+
+        try
+        {
+            TokenBuffer buffer = new TokenBuffer(this.objectMapper, false);
+            this.writer.writeValue(buffer, element);
+
+            // the recorded tokens are replayed into the JSON bytes, which does not serialize the element again
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (JsonGenerator generator = this.objectMapper.getFactory()
+                                                            .createGenerator(bytes))
+            {
+                buffer.serialize(generator);
+            }
+            if (bytes.size() >= threshold)
+            {
+                return bytesEncoder.apply(bytes.toByteArray());
+            }
+
+            JsonParser parser = buffer.asParser();
+            parser.nextToken();
+            return readStoredValue(parser);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw new ObjectMappingException(ErrorMessage.errorMessage("Unable to serialize element of type " + this.type.getName() + ": "
+                    + e.getMessage(), ErrorCodes.OME_SERIALIZE_TO_JSON_FAILED));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public D decode(Object value)
+    {
+        if (!(value instanceof Document))
+        {
+            if (this.type.isInstance(value))
+            {
+                return (D) value;
+            }
+            else if (this.numberConverter != null && value instanceof Number)
+            {
+                return this.numberConverter.apply((Number) value);
+            }
+        }
+
+        try
+        {
+            TokenBuffer buffer = new TokenBuffer(this.objectMapper, false);
+            this.objectMapper.writeValue(buffer, value);
+            return this.reader.readValue(buffer.asParser());
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            throw new ObjectMappingException(ErrorMessage.errorMessage("Unable to deserialize element of type " + this.type.getName() + ": "
+                    + e.getMessage(), ErrorCodes.OME_PARSE_JSON_FAILED));
+        }
+    }
+
+    /**
+     * Serializes the given element into its JSON bytes
+     * 
+     * @param element
+     * @return
+     */
+    byte[] encodeToBytes(D element)
+    {
+        try
+        {
+            return this.writer.writeValueAsBytes(element);
+        }
+        catch (IOException e)
+        {
+            throw new ObjectMappingException(ErrorMessage.errorMessage("Unable to serialize element of type " + this.type.getName() + ": "
+                    + e.getMessage(), ErrorCodes.OME_SERIALIZE_TO_JSON_FAILED));
+        }
+    }
+
+    /**
+     * Deserializes an element from the JSON bytes within the given {@link ByteBuffer}, which are read directly from the buffer
+     * 
+     * @param buffer
+     * @return
+     */
+    D decodeFromBytes(ByteBuffer buffer)
+    {
+        try
+        {
+            return this.reader.readValue(new ByteBufferBackedInputStream(buffer));
+        }
+        catch (IOException e)
+        {
+            throw new ObjectMappingException(ErrorMessage.errorMessage("Unable to deserialize element of type " + this.type.getName() + ": "
+                    + e.getMessage(), ErrorCodes.OME_PARSE_JSON_FAILED));
+        }
+    }
+
+    /**
+     * Reads the current value of the given {@link JsonParser} the same way as the {@link JacksonMapper} converts a tree into a
+     * {@link Document}
+     * 
+     * @param parser
+     * @return
+     * @throws IOException
+     */
+    private static Object readStoredValue(JsonParser parser) throws IOException
+    {
+        JsonToken token = parser.currentToken();
+        switch (token)
+        {
+            case START_OBJECT:
+                Document document = new Document();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    document.put(field, readStoredValue(parser));
+                }
+                return document;
+            case START_ARRAY:
+                List<Object> values = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                {
+                    values.add(readStoredValue(parser));
+                }
+                return values;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return readNumber(parser);
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_EMBEDDED_OBJECT:
+                return parser.getEmbeddedObject();
+            default:
+                return null;
+        }
+    }
+
+    private static Number readNumber(JsonParser parser) throws IOException
+    {
+        switch (parser.getNumberType())
+        {
+            case INT:
+                return parser.getIntValue();
+            case LONG:
+                return parser.getLongValue();
+            case BIG_INTEGER:
+                return parser.getBigIntegerValue();
+            case FLOAT:
+                return parser.getFloatValue();
+            case BIG_DECIMAL:
+                return parser.getDecimalValue();
+            default:
+                return parser.getDoubleValue();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "JacksonElementCodec [" + this.type.getName() + "]";
+    }
+
+}
@@ -0,0 +1,341 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.LongStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Memory mapped index from primitive long ids to the internal Nitrite ids of the stored documents. Each id is directly addressed as a slot of 8
+ * bytes within the file, so sequential ids need no further memory on the heap. The file is mapped in segments, which are only created for
+ * ids which have been written.<br>
+ * <br>
+ * Only ids between 0 and {@link #MAX_ID} are covered. The index is marked as incomplete, if an id outside of this range or an internal id of 0,
+ * which marks an empty slot, has been put, so that callers have to consult the store for ids which are not found.<br>
+ * <br>
+ * The header stores the version of the store the index has been closed with. An index which has not been closed properly or which belongs to
+ * a different version of the store has to be rebuilt by {@link #reset()}.
+ * 
+ * @author omnaest
+ */
+class MappedIdIndex implements AutoCloseable
+{
+    static final long MAX_ID = (1l << 32) - 1;
+
+    private static final long MAGIC          = 0x4e4944584944584cl;
+    private static final int  FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE           = 64;
+    private static final int HEADER_MAGIC          = 0;
+    private static final int HEADER_FORMAT_VERSION = 8;
+    private static final int HEADER_CLEAN          = 12;
+    private static final int HEADER_STORE_VERSION  = 16;
+    private static final int HEADER_SIZE_COUNT     = 24;
+    private static final int HEADER_COMPLETE       = 32;
+
+    private static final int  SEGMENT_BITS  = 20;
+    private static final long SEGMENT_MASK  = (1l << SEGMENT_BITS) - 1;
+    private static final long SEGMENT_BYTES = 8l << SEGMENT_BITS;
+    private static final int  SEGMENTS      = (int) ((MAX_ID + 1) >>> SEGMENT_BITS);
+
+    private File                                   file;
+    private RandomAccessFile                       randomAccessFile;
+    private FileChannel                            channel;
+    private MappedByteBuffer                       header;
+    private AtomicReferenceArray<MappedByteBuffer> segments = new AtomicReferenceArray<>(SEGMENTS);
+    private long                                   size;
+    private volatile boolean                       complete;
+    private volatile long                          modifications;
+    private boolean                                failed   = false;
+
+    public MappedIdIndex(File file)
+    {
+        super();
+        this.file = file;
+        try
+        {
+            FileUtils.forceMkdirParent(file);
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            this.channel = this.randomAccessFile.getChannel();
+            this.header = this.channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+            this.size = this.header.getLong(HEADER_SIZE_COUNT);
+            this.complete = this.header.getInt(HEADER_COMPLETE) != 0;
+        }
+        catch (IOException e)
+        {
+            this.closeSilently();
+            throw new IllegalStateException("Unable to open the id index " + file, e);
+        }
+    }
+
+    /**
+     * Returns true, if the index has been closed properly with the given version of the store
+     * 
+     * @param storeVersion
+     * @return
+     */
+    public boolean isValidFor(long storeVersion)
+    {
+        return this.header.getLong(HEADER_MAGIC) == MAGIC && this.header.getInt(HEADER_FORMAT_VERSION) == FORMAT_VERSION
+                && this.header.getInt(HEADER_CLEAN) != 0 && this.header.getLong(HEADER_STORE_VERSION) == storeVersion;
+    }
+
+    /**
+     * Removes all entries by truncating the file, which is only allowed before any segment has been mapped
+     */
+    public synchronized void reset()
+    {
+        try
+        {
+            this.channel.truncate(HEADER_SIZE);
+            this.header.putLong(HEADER_MAGIC, MAGIC)
+                       .putInt(HEADER_FORMAT_VERSION, FORMAT_VERSION)
+                       .putInt(HEADER_CLEAN, 0)
+                       .putLong(HEADER_STORE_VERSION, -1);
+            this.setSize(0);
+            this.setComplete(true);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to reset the id index " + this.file, e);
+        }
+    }
+
+    /**
+     * Maps all segments which exist within the file
+     */
+    public synchronized void mapExistingSegments()
+    {
+        try
+        {
+            long fileSize = this.channel.size();
+            for (int segment = 0; segment < SEGMENTS && HEADER_SIZE + segment * SEGMENT_BYTES < fileSize; segment++)
+            {
+                this.getOrMapSegment(segment);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to map the id index " + this.file, e);
+        }
+    }
+
+    /**
+     * Marks the index as modified, so that it is rebuilt after a crash
+     */
+    public synchronized void markDirty()
+    {
+        this.header.putInt(HEADER_CLEAN, 0);
+        this.header.force();
+    }
+
+    public boolean covers(long id)
+    {
+        return id >= 0 && id <= MAX_ID;
+    }
+
+    public boolean isComplete()
+    {
+        return this.complete;
+    }
+
+    /**
+     * Returns the internal id for the given id, or 0 if the id is not indexed
+     * 
+     * @param id
+     * @return
+     */
+    public long get(long id)
+    {
+        // the volatile read makes the slots written by other threads visible and is negative after close
+        if (this.modifications < 0 || !this.covers(id))
+        {
+            return 0;
+        }
+        MappedByteBuffer segment = this.segments.get((int) (id >>> SEGMENT_BITS));
+        return segment != null ? segment.getLong((int) (id & SEGMENT_MASK) << 3) : 0;
+    }
+
+    public synchronized void put(long id, long internalId)
+    {
+        if (!this.covers(id) || internalId == 0)
+        {
+            this.setComplete(false);
+            return;
+        }
+
+        try
+        {
+            MappedByteBuffer segment = this.getOrMapSegment((int) (id >>> SEGMENT_BITS));
+            int position = (int) (id & SEGMENT_MASK) << 3;
+            if (segment.getLong(position) == 0)
+            {
+                this.setSize(this.size + 1);
+            }
+            segment.putLong(position, internalId);
+            this.modifications++;
+        }
+        catch (IOException e)
+        {
+            this.failed = true;
+            throw new IllegalStateException("Unable to write into the id index " + this.file, e);
+        }
+    }
+
+    public synchronized void remove(long id)
+    {
+        if (!this.covers(id))
+        {
+            return;
+        }
+
+        MappedByteBuffer segment = this.segments.get((int) (id >>> SEGMENT_BITS));
+        int position = (int) (id & SEGMENT_MASK) << 3;
+        if (segment != null && segment.getLong(position) != 0)
+        {
+            segment.putLong(position, 0);
+            this.setSize(this.size - 1);
+            this.modifications++;
+        }
+    }
+
+    /**
+     * Removes all entries, the mapped segments are kept but filled with zeros
+     */
+    public synchronized void clear()
+    {
+        for (int index = 0; index < SEGMENTS; index++)
+        {
+            MappedByteBuffer segment = this.segments.get(index);
+            if (segment != null)
+            {
+                for (int position = 0; position < SEGMENT_BYTES; position += 8)
+                {
+                    segment.putLong(position, 0);
+                }
+            }
+        }
+        this.setSize(0);
+        this.setComplete(true);
+        this.modifications++;
+    }
+
+    public synchronized long size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Returns the indexed ids between the given inclusive boundaries in ascending order
+     * 
+     * @param from
+     * @param to
+     * @return
+     */
+    public LongStream ids(long from, long to)
+    {
+        long first = Math.max(from, 0);
+        long last = Math.min(to, MAX_ID);
+        if (first > last)
+        {
+            return LongStream.empty();
+        }
+        return LongStream.rangeClosed(first >>> SEGMENT_BITS, last >>> SEGMENT_BITS)
+                         .filter(segment -> this.segments.get((int) segment) != null)
+                         .flatMap(segment -> LongStream.rangeClosed(Math.max(first, segment << SEGMENT_BITS),
+                                                                    Math.min(last, ((segment + 1) << SEGMENT_BITS) - 1))
+                                                       .filter(id -> this.get(id) != 0));
+    }
+
+    private MappedByteBuffer getOrMapSegment(int index) throws IOException
+    {
+        MappedByteBuffer segment = this.segments.get(index);
+        if (segment == null)
+        {
+            segment = this.channel.map(MapMode.READ_WRITE, HEADER_SIZE + index * SEGMENT_BYTES, SEGMENT_BYTES);
+            this.segments.set(index, segment);
+        }
+        return segment;
+    }
+
+    private void setSize(long size)
+    {
+        this.size = size;
+        this.header.putLong(HEADER_SIZE_COUNT, size);
+    }
+
+    private void setComplete(boolean complete)
+    {
+        this.complete = complete;
+        this.header.putInt(HEADER_COMPLETE, complete ? 1 : 0);
+    }
+
+    /**
+     * Flushes all segments and marks the index as valid for the given version of the store, unless a write into the index has failed
+     * 
+     * @param storeVersion
+     */
+    public synchronized void close(long storeVersion)
+    {
+        if (this.channel == null)
+        {
+            return;
+        }
+
+        for (int index = 0; index < SEGMENTS; index++)
+        {
+            MappedByteBuffer segment = this.segments.get(index);
+            if (segment != null)
+            {
+                segment.force();
+            }
+        }
+        if (!this.failed)
+        {
+            this.header.putLong(HEADER_STORE_VERSION, storeVersion)
+                       .putInt(HEADER_CLEAN, 1);
+        }
+        this.header.force();
+        this.close();
+    }
+
+    /**
+     * Closes the file without marking the index as valid
+     */
+    @Override
+    public synchronized void close()
+    {
+        this.closeSilently();
+        this.channel = null;
+        this.segments = new AtomicReferenceArray<>(SEGMENTS);
+        this.modifications = -1;
+    }
+
+    private void closeSilently()
+    {
+        if (this.randomAccessFile != null)
+        {
+            try
+            {
+                this.randomAccessFile.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MappedIdIndex [" + this.file + "]";
+    }
+
+}
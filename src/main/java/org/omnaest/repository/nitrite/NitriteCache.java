@@ -2,32 +2,86 @@ package org.omnaest.repository.nitrite;
 
 import java.io.File;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.dizitart.no2.Document;
+import org.dizitart.no2.Filter;
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.SortOrder;
+import org.dizitart.no2.filters.Filters;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics;
+import org.omnaest.utils.ExceptionUtils;
 import org.omnaest.utils.JSONHelper;
+import org.omnaest.utils.cache.Cache;
 import org.omnaest.utils.cache.internal.AbstractCache;
 import org.omnaest.utils.duration.TimeDuration;
 import org.omnaest.utils.supplier.SupplierConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * {@link Cache} based on a {@link NitriteElementRepository}.<br>
+ * <br>
+ * The type and the modification date of each entry are stored as separate fields next to the value, which allows to read them without
+ * deserializing the value, see {@link #getType(String)} and {@link #getAge(String)}.
+ * 
+ * @author omnaest
+ */
 public class NitriteCache extends AbstractCache
 {
+    private static final Logger LOG = LoggerFactory.getLogger(NitriteCache.class);
+
+    private static final String TYPE_FIELD              = "type";
+    private static final String MODIFICATION_DATE_FIELD = "modificationDate";
+    private static final int    EVICTION_BATCH_SIZE     = 1000;
+
     private NitriteElementRepository<String, ElementAndType> repository;
+    private CacheValueCodec                                  valueCodec                = new JacksonCacheValueCodec();
+    private long                                             expireAfterWriteInMillis  = -1;
+    private long                                             expireAfterAccessInMillis = -1;
+    private long                                             maximumSize               = -1;
+    private long                                             sweepIntervalInMillis     = TimeUnit.MINUTES.toMillis(1);
+    private Map<String, Long>                                accessTimes               = new ConcurrentHashMap<>();
+    private Map<String, CompletableFuture<Object>>           computations              = new ConcurrentHashMap<>();
+    private Executor                                         computationExecutor       = ForkJoinPool.commonPool();
+    private ScheduledExecutorService                         sweeper;
+    private LongAdder                                        expiredCount              = new LongAdder();
+    private LongAdder                                        evictedCount              = new LongAdder();
+    private LongSupplier                                     clock                     = System::currentTimeMillis;
 
     private static class ElementAndType
     {
+        /**
+         * Value of entries written by earlier versions, which stored the value as {@link Document}
+         */
         private Object   value;
+        private byte[]   payload;
         private Class<?> type;
         private Date     modificationDate;
 
-        public ElementAndType(Object value, Class<?> type)
+        public ElementAndType(byte[] payload, Class<?> type, Date modificationDate)
         {
             super();
-            this.value = value;
+            this.payload = payload;
             this.type = type;
-            this.modificationDate = new Date();
+            this.modificationDate = modificationDate;
         }
 
         @SuppressWarnings("unused")
@@ -41,6 +95,11 @@ public class NitriteCache extends AbstractCache
             return this.value;
         }
 
+        public byte[] getPayload()
+        {
+            return this.payload;
+        }
+
         public Class<?> getType()
         {
             return this.type;
@@ -71,64 +130,490 @@ public class NitriteCache extends AbstractCache
                 //do nothing
             }
         };
-        this.repository = new NitriteElementRepository<String, ElementAndType>(ElementAndType.class, file, idSupplier).withIgnoreMappingExceptions();
+        this.repository = new NitriteElementRepository<String, ElementAndType>(ElementAndType.class, file, idSupplier).withIgnoreMappingExceptions()
+                                                                                                                     .withIndex(MODIFICATION_DATE_FIELD,
+                                                                                                                                IndexType.NonUnique);
+    }
+
+    /**
+     * Sets the {@link CacheValueCodec} which serializes the cached values, default is the {@link JacksonCacheValueCodec}. The codec has to be
+     * the same for all accesses to a cache file.
+     * 
+     * @param valueCodec
+     * @return
+     */
+    public NitriteCache withValueCodec(CacheValueCodec valueCodec)
+    {
+        this.valueCodec = valueCodec;
+        return this;
+    }
+
+    /**
+     * Enables an on-heap read-through cache with the given maximum number of entries in front of the file based storage
+     * 
+     * @see NitriteElementRepository#withElementCache(long)
+     * @param maximumSize
+     * @return
+     */
+    public NitriteCache withElementCache(long maximumSize)
+    {
+        this.repository.withElementCache(maximumSize);
+        return this;
+    }
+
+    public Optional<ElementCache.Statistics> getElementCacheStatistics()
+    {
+        return this.repository.getElementCacheStatistics();
+    }
+
+    /**
+     * @see NitriteElementRepository#withMetrics(RepositoryMetrics)
+     * @param metrics
+     * @return
+     */
+    public NitriteCache withMetrics(RepositoryMetrics metrics)
+    {
+        this.repository.withMetrics(metrics);
+        return this;
+    }
+
+    /**
+     * @see NitriteElementRepository#usingBackgroundCompaction(long, TimeUnit, int, int)
+     * @param idleTime
+     * @param timeUnit
+     * @param targetFillRate
+     * @param maxRewriteBytesPerRun
+     * @return
+     */
+    public NitriteCache withBackgroundCompaction(long idleTime, TimeUnit timeUnit, int targetFillRate, int maxRewriteBytesPerRun)
+    {
+        this.repository.usingBackgroundCompaction(idleTime, timeUnit, targetFillRate, maxRewriteBytesPerRun);
+        return this;
+    }
+
+    /**
+     * Buffers repeated {@link #put(String, Object)} and {@link #remove(String)} calls of the same keys and writes only the latest value of each
+     * key
+     * 
+     * @see NitriteElementRepository#usingWriteBehind(long, TimeUnit, int)
+     * @param maxDelay
+     * @param timeUnit
+     * @param maxPendingWrites
+     * @return
+     */
+    public NitriteCache withWriteBehind(long maxDelay, TimeUnit timeUnit, int maxPendingWrites)
+    {
+        this.repository.usingWriteBehind(maxDelay, timeUnit, maxPendingWrites);
+        return this;
+    }
+
+    /**
+     * @see NitriteElementRepository#compact()
+     * @return the number of bytes the cache file has shrunk by
+     */
+    public long compact()
+    {
+        return this.repository.compact();
+    }
+
+    /**
+     * Removes entries after the given duration since their last write. Expired entries are removed by a background sweeper, see
+     * {@link #withSweepInterval(long, TimeUnit)}.
+     * 
+     * @param duration
+     * @param timeUnit
+     * @return
+     */
+    public NitriteCache withExpireAfterWrite(long duration, TimeUnit timeUnit)
+    {
+        this.expireAfterWriteInMillis = timeUnit.toMillis(duration);
+        return this.startSweeper();
+    }
+
+    /**
+     * Removes entries after the given duration since their last read or write. Expired entries are removed by a background sweeper, see
+     * {@link #withSweepInterval(long, TimeUnit)}.<br>
+     * <br>
+     * Read accesses are only tracked in memory, so after reopening a cache file the last write counts as last access.
+     * 
+     * @param duration
+     * @param timeUnit
+     * @return
+     */
+    public NitriteCache withExpireAfterAccess(long duration, TimeUnit timeUnit)
+    {
+        this.expireAfterAccessInMillis = timeUnit.toMillis(duration);
+        return this.startSweeper();
+    }
+
+    /**
+     * Limits the number of entries. If the limit is exceeded, the background sweeper removes the entries with the oldest modification date.
+     * 
+     * @param maximumSize
+     * @return
+     */
+    public NitriteCache withMaximumSize(long maximumSize)
+    {
+        this.maximumSize = maximumSize;
+        return this.startSweeper();
+    }
+
+    /**
+     * Sets the interval of the background sweeper which removes expired and exceeding entries, default is 1 minute
+     * 
+     * @param interval
+     * @param timeUnit
+     * @return
+     */
+    public NitriteCache withSweepInterval(long interval, TimeUnit timeUnit)
+    {
+        this.sweepIntervalInMillis = timeUnit.toMillis(interval);
+        this.stopSweeper();
+        return this.startSweeper();
+    }
+
+    /**
+     * Sets the clock which provides the current time in milliseconds for the modification dates, the access times and the expiry
+     * 
+     * @param clock
+     * @return
+     */
+    NitriteCache withClock(LongSupplier clock)
+    {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Returns the number of entries removed because of {@link #withExpireAfterWrite(long, TimeUnit)} or
+     * {@link #withExpireAfterAccess(long, TimeUnit)}
+     * 
+     * @return
+     */
+    public long getExpiredCount()
+    {
+        return this.expiredCount.sum();
+    }
+
+    /**
+     * Returns the number of entries removed because of {@link #withMaximumSize(long)}
+     * 
+     * @return
+     */
+    public long getEvictedCount()
+    {
+        return this.evictedCount.sum();
+    }
+
+    private synchronized NitriteCache startSweeper()
+    {
+        if (this.sweeper == null)
+        {
+            this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable ->
+            {
+                Thread thread = new Thread(runnable, "NitriteCacheSweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.sweeper.scheduleWithFixedDelay(() ->
+            {
+                try
+                {
+                    this.sweep();
+                }
+                catch (Exception e)
+                {
+                    LOG.error("Cache sweep failed", e);
+                }
+            }, this.sweepIntervalInMillis, this.sweepIntervalInMillis, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Shuts the sweeper down without interrupting a running sweep and returns it, so the caller can wait for its termination outside of the
+     * lock {@link #sweep()} requires
+     * 
+     * @return
+     */
+    private synchronized ScheduledExecutorService stopSweeper()
+    {
+        ScheduledExecutorService sweeper = this.sweeper;
+        this.sweeper = null;
+        if (sweeper != null)
+        {
+            sweeper.shutdown();
+        }
+        return sweeper;
+    }
+
+    /**
+     * Removes all expired entries and evicts the oldest entries exceeding the maximum size. This is called periodically by the background
+     * sweeper, but can be called explicitly as well.
+     */
+    public synchronized void sweep()
+    {
+        long now = this.clock.getAsLong();
+        if (this.expireAfterWriteInMillis >= 0)
+        {
+            this.expiredCount.add(this.expireEntriesModifiedBefore(now - this.expireAfterWriteInMillis, key -> true));
+        }
+        if (this.expireAfterAccessInMillis >= 0)
+        {
+            long threshold = now - this.expireAfterAccessInMillis;
+            this.expiredCount.add(this.expireEntriesModifiedBefore(threshold, key -> Optional.ofNullable(this.accessTimes.get(key))
+                                                                                             .map(accessTime -> accessTime < threshold)
+                                                                                             .orElse(true)));
+        }
+        if (this.maximumSize >= 0)
+        {
+            this.evictedCount.add(this.evictOldestEntries());
+        }
+    }
+
+    /**
+     * Walks the modification date index once up to the given threshold and removes the expired entries in batches. The removal is restricted
+     * to entries which are still older than the threshold, so entries written in the meantime are kept.
+     * 
+     * @param threshold
+     * @param isExpired
+     * @return
+     */
+    private long expireEntriesModifiedBefore(long threshold, Predicate<String> isExpired)
+    {
+        Filter filter = Filters.lt(NitriteElementRepository.toElementFieldPath(MODIFICATION_DATE_FIELD), threshold);
+        try (Stream<String> candidates = this.repository.idsOrderedByIndex(MODIFICATION_DATE_FIELD, threshold - 1))
+        {
+            return BatchUtils.chunked(candidates.filter(isExpired), EVICTION_BATCH_SIZE)
+                             .mapToLong(keys -> this.removeAll(keys, filter))
+                             .sum();
+        }
+    }
+
+    /**
+     * Walks the modification date index once and removes the oldest entries exceeding the maximum size in batches
+     * 
+     * @return
+     */
+    private long evictOldestEntries()
+    {
+        long excess = this.repository.size() - this.maximumSize;
+        if (excess <= 0)
+        {
+            return 0;
+        }
+
+        try (Stream<String> candidates = this.repository.idsOrderedByIndex(MODIFICATION_DATE_FIELD, null))
+        {
+            return BatchUtils.chunked(candidates.limit(excess), EVICTION_BATCH_SIZE)
+                             .mapToLong(keys -> this.removeAll(keys, Filters.ALL))
+                             .sum();
+        }
+    }
+
+    private int removeAll(List<String> keys, Filter filter)
+    {
+        if (keys.isEmpty())
+        {
+            return 0;
+        }
+        int removed = this.repository.removeAll(keys, filter);
+        keys.forEach(this.accessTimes::remove);
+        return removed;
+    }
+
+    /**
+     * Stops the background sweeper and closes the underlying {@link NitriteElementRepository}
+     */
+    public void close()
+    {
+        ScheduledExecutorService sweeper = this.stopSweeper();
+        if (sweeper != null)
+        {
+            ExceptionUtils.executeSilentVoid(() -> sweeper.awaitTermination(10, TimeUnit.MINUTES));
+        }
+        this.repository.close();
     }
 
     @Override
     public <V> V get(String key, Class<V> type)
     {
-        return Optional.ofNullable(this.repository.getValue(key))
-                       .map(elementAndType -> JSONHelper.toObjectWithType(elementAndType.getValue(), type))
-                       .orElse(null);
+        V value = Optional.ofNullable(this.repository.getValue(key))
+                          .map(elementAndType -> elementAndType.getPayload() != null ? this.valueCodec.decode(elementAndType.getPayload(), type)
+                                  : JSONHelper.toObjectWithType(elementAndType.getValue(), type))
+                          .orElse(null);
+        if (value != null && this.expireAfterAccessInMillis >= 0)
+        {
+            this.accessTimes.put(key, this.clock.getAsLong());
+        }
+        return value;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     public <V> Class<V> getType(String key)
     {
-        return (Class<V>) this.repository.getValue(key)
-                                         .getType();
+        return (Class<V>) this.repository.getElementDocument(key)
+                                         .map(document -> document.get(TYPE_FIELD))
+                                         .map(type -> type instanceof Class ? (Class<?>) type : this.resolveType(key, String.valueOf(type)))
+                                         .orElse(null);
+    }
+
+    private Class<?> resolveType(String key, String typeName)
+    {
+        try
+        {
+            return Class.forName(typeName, false, Optional.ofNullable(Thread.currentThread()
+                                                                            .getContextClassLoader())
+                                                          .orElse(NitriteCache.class.getClassLoader()));
+        }
+        catch (ClassNotFoundException e)
+        {
+            return Optional.ofNullable(this.repository.getValue(key))
+                           .map(ElementAndType::getType)
+                           .orElse(null);
+        }
     }
 
     @Override
     public void put(String key, Object value)
     {
-        this.repository.put(key, new ElementAndType(value, value != null ? value.getClass() : null));
+        this.repository.put(key, new ElementAndType(value != null ? this.valueCodec.encode(value) : null, value != null ? value.getClass() : null,
+                                                    new Date(this.clock.getAsLong())));
     }
 
+    /**
+     * Returns the cached value or computes and caches it using the given {@link Supplier}. Concurrent calls for the same key wait for a single
+     * computation instead of calling the {@link Supplier} themselves.
+     */
     @Override
     public <V> V computeIfAbsent(String key, Supplier<V> supplier, Class<V> type)
     {
         V retval = this.get(key, type);
         if (retval == null)
         {
-            retval = supplier.get();
-            this.put(key, retval);
+            try
+            {
+                retval = this.computeOnce(key, supplier, type, Runnable::run)
+                             .join();
+            }
+            catch (CompletionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
         }
 
         return retval;
     }
 
+    /**
+     * Asynchronous variant of {@link #computeIfAbsent(String, Supplier, Class)}, which reads the cache and runs the {@link Supplier} on the
+     * executor defined by {@link #withComputationExecutor(Executor)}
+     * 
+     * @param key
+     * @param supplier
+     * @param type
+     * @return
+     */
+    public <V> CompletableFuture<V> computeIfAbsentAsync(String key, Supplier<V> supplier, Class<V> type)
+    {
+        return CompletableFuture.supplyAsync(() -> this.get(key, type), this.computationExecutor)
+                                .thenCompose(value -> value != null ? CompletableFuture.completedFuture(value)
+                                        : this.computeOnce(key, supplier, type, this.computationExecutor));
+    }
+
+    /**
+     * Sets the {@link Executor} used by {@link #computeIfAbsentAsync(String, Supplier, Class)}, default is the {@link ForkJoinPool#commonPool()}
+     * 
+     * @param computationExecutor
+     * @return
+     */
+    public NitriteCache withComputationExecutor(Executor computationExecutor)
+    {
+        this.computationExecutor = computationExecutor;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V> CompletableFuture<V> computeOnce(String key, Supplier<V> supplier, Class<V> type, Executor executor)
+    {
+        CompletableFuture<Object> newComputation = new CompletableFuture<>();
+        CompletableFuture<Object> computation = this.computations.putIfAbsent(key, newComputation);
+        if (computation == null)
+        {
+            computation = newComputation;
+            executor.execute(() ->
+            {
+                try
+                {
+                    // another computation could have been finished between the cache miss and the registration of this computation
+                    V value = this.get(key, type);
+                    if (value == null)
+                    {
+                        value = supplier.get();
+                        this.put(key, value);
+                    }
+                    newComputation.complete(value);
+                }
+                catch (Throwable e)
+                {
+                    newComputation.completeExceptionally(e);
+                }
+                finally
+                {
+                    this.computations.remove(key, newComputation);
+                }
+            });
+        }
+        return computation.thenApply(value -> (V) value);
+    }
+
     @Override
     public void remove(String key)
     {
         this.repository.remove(key);
+        this.accessTimes.remove(key);
     }
 
+    /**
+     * Returns a copy of all keys, which are read from the id index without reading the values. Use {@link #keyStream()} to read the keys
+     * lazily.
+     */
     @Override
     public Set<String> keySet()
     {
-        return this.repository.ids()
-                              .collect(Collectors.toSet());
+        return this.keyStream()
+                   .collect(Collectors.toSet());
+    }
+
+    /**
+     * Returns a lazy {@link Stream} of all keys, which does not read the cached values
+     * 
+     * @return
+     */
+    public Stream<String> keyStream()
+    {
+        return this.repository.ids(SortOrder.Ascending);
     }
 
     @Override
     public TimeDuration getAge(String key)
     {
-        return Optional.ofNullable(this.repository.getValue(key))
-                       .map(elementAndType -> elementAndType.getModificationDate())
-                       .map(modificationDate -> TimeDuration.between(new Date(), modificationDate))
-                       .orElse(null);
+        return this.getModificationDate(key)
+                   .map(modificationDate -> TimeDuration.between(new Date(this.clock.getAsLong()), modificationDate))
+                   .orElse(null);
+    }
+
+    private Optional<Date> getModificationDate(String key)
+    {
+        return this.repository.getElementDocument(key)
+                              .map(document -> document.get(MODIFICATION_DATE_FIELD))
+                              .map(modificationDate -> modificationDate instanceof Date ? (Date) modificationDate
+                                      : new Date(((Number) modificationDate).longValue()));
     }
 
 }
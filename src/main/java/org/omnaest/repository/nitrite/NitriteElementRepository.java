@@ -1,39 +1,79 @@
 package org.omnaest.repository.nitrite;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.dizitart.no2.Document;
+import org.dizitart.no2.Filter;
+import org.dizitart.no2.FindOptions;
+import org.dizitart.no2.IndexOptions;
+import org.dizitart.no2.IndexType;
 import org.dizitart.no2.Nitrite;
 import org.dizitart.no2.NitriteBuilder;
+import org.dizitart.no2.NitriteCollection;
+import org.dizitart.no2.NitriteId;
+import org.dizitart.no2.SortOrder;
+import org.dizitart.no2.UpdateOptions;
 import org.dizitart.no2.exceptions.ObjectMappingException;
 import org.dizitart.no2.exceptions.UniqueConstraintException;
+import org.dizitart.no2.filters.Filters;
 import org.dizitart.no2.mapper.JacksonMapper;
 import org.dizitart.no2.mapper.NitriteMapper;
 import org.dizitart.no2.objects.Id;
 import org.dizitart.no2.objects.ObjectRepository;
 import org.dizitart.no2.objects.filters.ObjectFilters;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStore.TxCounter;
+import org.omnaest.repository.nitrite.metrics.HistogramRepositoryMetrics;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics.Operation;
 import org.omnaest.utils.EnumUtils;
 import org.omnaest.utils.ExceptionUtils;
 import org.omnaest.utils.MapUtils;
-import org.omnaest.utils.ReflectionUtils;
 import org.omnaest.utils.StreamUtils;
-import org.omnaest.utils.ThreadUtils;
 import org.omnaest.utils.element.cached.CachedElement;
-import org.omnaest.utils.lock.SynchronizedAtLeastOneTimeExecutor;
 import org.omnaest.utils.optional.NullOptional;
 import org.omnaest.utils.repository.ElementRepository;
 import org.omnaest.utils.repository.IndexElementRepository;
@@ -51,101 +91,172 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
 {
     private static final Logger LOG = LoggerFactory.getLogger(NitriteElementRepository.class);
 
+    private static final String METADATA_COLLECTION = NitriteElementRepository.class.getName() + ".metadata";
+    private static final String METADATA_KEY        = "key";
+    private static final String METADATA_VALUE      = "value";
+    private static final String ELEMENT_FIELD       = "element";
+    private static final String INDEX_MAP_PREFIX    = "$nitrite_index|";
+    private static final String INDEX_MAP_SEPARATOR = "|";
+
+    private static final int COMPACTION_TARGET_FILL_RATE  = 90;
+    private static final int COMPACTION_MAX_REWRITE_BYTES = 16 * 1024 * 1024;
+
+    private static final int    VALUE_LOG_SEGMENT_SIZE   = 64 * 1024 * 1024;
+    private static final double VALUE_LOG_MIN_LIVE_RATIO = 0.5;
+
     private CachedElement<DatabaseAndRepository<D>> repository              = CachedElement.of(() -> this.createDatabase());
-    private Class<D>                                dataType;
     private File                                    file;
     private String                                  username;
     private String                                  password;
     protected Supplier<SupplierConsumer<I>>         idSupplier;
-    private CommitExecutor<D>                       commitExecutor;
+    private CommitExecutor                          commitExecutor;
     private Consumer<Exception>                     mappingExceptionHandler = e -> LOG.error("Unable to serialize/deserialize element instance", e);
+    private ElementCache<I, D>                      elementCache;
+    private RepositoryMetrics                       metrics                 = RepositoryMetrics.NOOP;
+    private int                                     bulkChunkSize           = 10000;
+    private int                                     readChunkSize           = 1000;
+    private ForkJoinPool                            readPool;
+    private NitriteRepositoryOptions                options;
+    private Map<String, IndexType>                  elementFieldIndexes     = new ConcurrentHashMap<>();
+    private volatile boolean                        databaseCreated         = false;
+    private volatile ElementCodec<D>                elementCodec;
+    private ScheduledExecutorService                compactor;
+    private long                                    compactedUpToWriteNanos;
+    private List<Consumer<Collection<I>>>           writeListeners          = new CopyOnWriteArrayList<>();
+    private volatile ValueLog                       valueLog;
+    private AtomicInteger                           openSnapshots           = new AtomicInteger();
+    private volatile WriteBehindBuffer<I, D>        writeBehindBuffer;
 
-    private static class CommitExecutor<D>
+    private static class DatabaseAndRepository<D>
     {
-        private AutoCommitMode                     autoCommitMode = AutoCommitMode.COMMIT_AFTER_EACH_WRITE_OPERATION;
-        private Supplier<DatabaseAndRepository<D>> repository;
-        private SynchronizedAtLeastOneTimeExecutor onlyOneTimeExecutor;
-
-        public CommitExecutor(Supplier<DatabaseAndRepository<D>> repository)
+        private Supplier<ObjectRepository<Element>> repository;
+        private Nitrite                             database;
+        private CommitExecutor                      commitExecutor;
+        private Optional<MVStore>                   mvStore        = Optional.empty();
+        private ReentrantReadWriteLock              snapshotLock   = new ReentrantReadWriteLock();
+        private volatile long                       lastWriteNanos = System.nanoTime();
+        private volatile MVMap<Object, Object>      documentMap;
+
+        /**
+         * @param repository
+         * @param database
+         * @param commitExecutor
+         *            null for a read only database
+         */
+        public DatabaseAndRepository(Supplier<ObjectRepository<Element>> repository, Nitrite database, CommitExecutor commitExecutor)
         {
             super();
             this.repository = repository;
+            this.database = database;
+            this.commitExecutor = commitExecutor;
+        }
 
-            int numberOfThreads = 10 * Runtime.getRuntime()
-                                              .availableProcessors();
-            this.onlyOneTimeExecutor = new SynchronizedAtLeastOneTimeExecutor(Executors.newFixedThreadPool(numberOfThreads), () ->
-            {
-                ThreadUtils.sleepSilently(1, TimeUnit.SECONDS);
-                LOG.debug("Autocommit...");
-                this.commitImmediate();
-                LOG.debug("...done");
-            });
+        private boolean isReadOnly()
+        {
+            return this.commitExecutor == null;
         }
 
-        public void commit()
+        private void assertWritable()
         {
-            if (AutoCommitMode.COMMIT_AFTER_EACH_WRITE_OPERATION.equals(this.autoCommitMode))
-            {
-                this.commitImmediate();
-            }
-            else if (AutoCommitMode.COMMIT_AFTER_1_SECOND.equals(this.autoCommitMode))
+            if (this.isReadOnly())
             {
-                this.onlyOneTimeExecutor.fire();
+                throw new IllegalStateException("The repository has been opened read only");
             }
         }
 
-        public void setAutoCommitMode(AutoCommitMode autoCommitMode)
+        public Nitrite getDatabase()
         {
-            this.autoCommitMode = autoCommitMode;
+            return this.database;
         }
 
-        public void close()
+        public DatabaseAndRepository<D> setMVStore(Optional<MVStore> mvStore)
         {
-            this.onlyOneTimeExecutor.shutdown()
-                                    .awaitTermination(10, TimeUnit.MINUTES);
-            this.commitImmediate();
+            this.mvStore = mvStore;
+            return this;
         }
 
-        public void commitImmediate()
+        public Optional<MVStore> getMVStore()
         {
-            this.repository.get()
-                           .getDatabase()
-                           .commit();
+            return this.mvStore;
         }
 
-    }
+        /**
+         * Returns the map of the stored {@link Document}s by their internal Nitrite id. The map is opened again, if it has been dropped.
+         * 
+         * @return
+         */
+        public MVMap<Object, Object> getDocumentMap()
+        {
+            MVMap<Object, Object> documentMap = this.documentMap;
+            if (documentMap == null || documentMap.isClosed())
+            {
+                MVStore store = this.mvStore.orElseThrow(() -> new UnsupportedOperationException("The store of the repository is not accessible"));
+                documentMap = store.openMap(this.getCollectionName());
+                this.documentMap = documentMap;
+            }
+            return documentMap;
+        }
 
-    private static class DatabaseAndRepository<D>
-    {
-        private Supplier<ObjectRepository<Element>> repository;
-        private Nitrite                             database;
-        private CommitExecutor<D>                   commitExecutor;
+        public String getCollectionName()
+        {
+            return this.repository.get()
+                                  .getDocumentCollection()
+                                  .getName();
+        }
 
-        public DatabaseAndRepository(Supplier<ObjectRepository<Element>> repository, Nitrite database, CommitExecutor<D> commitExecutor)
+        /**
+         * Returns the index map of the {@link Id} field of the {@link Element}s, which maps each id to the internal Nitrite ids. The
+         * name of the map is an implementation detail of Nitrite, so an empty {@link Optional} is returned, if the map can not be found.
+         * 
+         * @return
+         */
+        public Optional<MVMap<Object, Object>> getIdIndexMap()
         {
-            super();
-            this.repository = repository;
-            this.database = database;
-            this.commitExecutor = commitExecutor;
+            return this.getIndexMap("id", IndexType.Unique);
         }
 
-        public Nitrite getDatabase()
+        /**
+         * Returns the index map of the given field, which maps each value of the field to the internal Nitrite ids, see
+         * {@link #getIdIndexMap()}
+         * 
+         * @param field
+         * @param indexType
+         * @return
+         */
+        public Optional<MVMap<Object, Object>> getIndexMap(String field, IndexType indexType)
         {
-            return this.database;
+            String indexMapName = INDEX_MAP_PREFIX + this.getCollectionName() + INDEX_MAP_SEPARATOR + field + INDEX_MAP_SEPARATOR + indexType.name();
+            return this.mvStore.filter(store -> store.hasMap(indexMapName))
+                               .map(store -> store.<Object, Object>openMap(indexMapName));
         }
 
         public <R> R executeWriteOnRepositoryAndGet(Function<ObjectRepository<Element>, R> operation)
         {
-            R retval = operation.apply(this.repository.get());
+            this.assertWritable();
+            R retval = this.applyWriteOperation(operation);
             this.executeCommitByAutoCommitMode();
             return retval;
         }
 
+        public <R> CompletableFuture<R> executeWriteOnRepositoryAndAcknowledge(Function<ObjectRepository<Element>, R> operation)
+        {
+            this.assertWritable();
+            R retval = this.applyWriteOperation(operation);
+            return this.commitExecutor.commitAndAcknowledge()
+                                      .thenApply(acknowledgement -> retval);
+        }
+
         private void executeCommitByAutoCommitMode()
         {
             this.commitExecutor.commit();
         }
 
+        public CompletableFuture<Void> acknowledgeCommit()
+        {
+            this.assertWritable();
+            return this.commitExecutor.commitAndAcknowledge();
+        }
+
         public <R> R executeReadOnRepositoryAndGet(Function<ObjectRepository<Element>, R> operation)
         {
             return operation.apply(this.repository.get());
@@ -153,10 +264,14 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
 
         public void executeWriteOnRepository(Consumer<ObjectRepository<Element>> operation)
         {
-            ObjectRepository<Element> objectRepository = this.repository.get();
+            this.assertWritable();
             try
             {
-                operation.accept(objectRepository);
+                this.applyWriteOperation(objectRepository ->
+                {
+                    operation.accept(objectRepository);
+                    return null;
+                });
             }
             finally
             {
@@ -164,9 +279,90 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
             }
         }
 
+        /**
+         * Write operations share the snapshot lock, so that a snapshot never observes a write operation which has modified only some of the
+         * maps of the collection, e.g. the documents but not yet the id index
+         * 
+         * @param operation
+         * @return
+         */
+        private <R> R applyWriteOperation(Function<ObjectRepository<Element>, R> operation)
+        {
+            ObjectRepository<Element> objectRepository = this.repository.get();
+            Lock lock = this.snapshotLock.readLock();
+            lock.lock();
+            try
+            {
+                return operation.apply(objectRepository);
+            }
+            finally
+            {
+                this.lastWriteNanos = System.nanoTime();
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Similar to {@link #executeWriteOnRepositoryAndGet(Function)} but waits for the write operations in progress and blocks further ones
+         * while the given operation is executed, so that it can read and update elements atomically
+         * 
+         * @param operation
+         * @return
+         */
+        public <R> R executeExclusiveWriteOnRepositoryAndGet(Function<ObjectRepository<Element>, R> operation)
+        {
+            this.assertWritable();
+            R retval = this.executeExclusively(() ->
+            {
+                try
+                {
+                    return operation.apply(this.repository.get());
+                }
+                finally
+                {
+                    this.lastWriteNanos = System.nanoTime();
+                }
+            });
+            this.executeCommitByAutoCommitMode();
+            return retval;
+        }
+
+        /**
+         * Returns the {@link System#nanoTime()} of the last write operation
+         * 
+         * @return
+         */
+        public long getLastWriteNanos()
+        {
+            return this.lastWriteNanos;
+        }
+
+        /**
+         * Executes the given operation while no write operation is in progress
+         * 
+         * @param operation
+         * @return
+         */
+        public <R> R executeExclusively(Supplier<R> operation)
+        {
+            Lock lock = this.snapshotLock.writeLock();
+            lock.lock();
+            try
+            {
+                return operation.get();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
         public void closeDatabase()
         {
-            this.database.commit();
+            if (!this.isReadOnly())
+            {
+                this.database.commit();
+            }
             this.database.close();
         }
 
@@ -210,10 +406,22 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
     }
 
     public NitriteElementRepository(Class<D> type, File file, Supplier<SupplierConsumer<I>> idSupplier)
+    {
+        this(type, file, idSupplier, new NitriteRepositoryOptions());
+    }
+
+    /**
+     * @param type
+     * @param file
+     *            is ignored for {@link NitriteRepositoryOptions#inMemory()}
+     * @param idSupplier
+     * @param options
+     */
+    public NitriteElementRepository(Class<D> type, File file, Supplier<SupplierConsumer<I>> idSupplier, NitriteRepositoryOptions options)
     {
         super();
-        this.dataType = type;
-        this.file = file;
+        this.file = options.isInMemory() ? null : file;
+        this.options = options;
 
         if (idSupplier == null)
         {
@@ -234,8 +442,29 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
         }
 
         this.idSupplier = CachedElement.of(idSupplier);
+        this.elementCodec = new JacksonElementCodec<>(type);
 
-        this.commitExecutor = new CommitExecutor<>(this.repository);
+        // read only repositories never commit, so they do not need the commit threads
+        Supplier<Nitrite> database = () -> this.getRepository()
+                                               .getDatabase();
+        this.commitExecutor = options.isReadOnly() ? null : new CommitExecutor(database, this.file);
+    }
+
+    /**
+     * Sets the {@link ElementCodec} which converts the elements into the stored values and back, default is a {@link JacksonElementCodec}.
+     * The stored values of existing elements must be readable by the given {@link ElementCodec}.
+     * 
+     * @param elementCodec
+     * @return
+     */
+    public NitriteElementRepository<I, D> withElementCodec(ElementCodec<D> elementCodec)
+    {
+        this.elementCodec = elementCodec;
+        if (this.elementCache != null)
+        {
+            this.elementCache.clear();
+        }
+        return this;
     }
 
     public NitriteElementRepository<I, D> withCredentials(String username, String password)
@@ -245,9 +474,24 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
         return this;
     }
 
+    /**
+     * @see #COMMIT_AFTER_EACH_WRITE_OPERATION
+     * @see #COMMIT_AFTER_1_SECOND
+     * @see #GROUP_COMMIT
+     * @see #AUTOCOMMIT_DISABLED
+     * @author omnaest
+     */
     public enum AutoCommitMode
     {
-        COMMIT_AFTER_EACH_WRITE_OPERATION, COMMIT_AFTER_1_SECOND, AUTOCOMMIT_DISABLED
+        COMMIT_AFTER_EACH_WRITE_OPERATION, COMMIT_AFTER_1_SECOND,
+
+        /**
+         * A single committer thread coalesces all write operations arriving within a time window into one commit, see
+         * {@link NitriteElementRepository#usingGroupCommit(long, TimeUnit, int)}
+         */
+        GROUP_COMMIT,
+
+        AUTOCOMMIT_DISABLED
     }
 
     /**
@@ -258,244 +502,1898 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
      */
     public NitriteElementRepository<I, D> usingAutoCommit(AutoCommitMode autoCommitMode)
     {
-        this.commitExecutor.setAutoCommitMode(autoCommitMode);
+        if (this.commitExecutor != null)
+        {
+            this.commitExecutor.setAutoCommitMode(autoCommitMode);
+        }
         return this;
     }
 
-    public NitriteElementRepository<I, D> withMappingExceptionHandler(Consumer<Exception> mappingExceptionHandler)
+    /**
+     * Sets the {@link AutoCommitMode#GROUP_COMMIT} mode, where all write operations arriving within the given time window are committed
+     * together. A commit is triggered earlier if the number of pending write operations reaches the given maximum batch size.<br>
+     * <br>
+     * Use e.g. {@link #putAcknowledged(Comparable, Object)} to get notified when a single write operation has been committed.
+     * 
+     * @param window
+     * @param timeUnit
+     * @param maxBatchSize
+     * @return
+     */
+    public NitriteElementRepository<I, D> usingGroupCommit(long window, TimeUnit timeUnit, int maxBatchSize)
     {
-        this.mappingExceptionHandler = mappingExceptionHandler;
-        return this;
+        if (this.commitExecutor != null)
+        {
+            this.commitExecutor.setGroupCommitThresholds(window, timeUnit, maxBatchSize);
+        }
+        return this.usingAutoCommit(AutoCommitMode.GROUP_COMMIT);
     }
 
-    public NitriteElementRepository<I, D> withIgnoreMappingExceptions()
+    /**
+     * Enables a write behind buffer for {@link #put(Comparable, Object)} and {@link #remove(Comparable)}, which keeps only the latest pending
+     * write operation of each id. The pending write operations are written in bulk with one commit per chunk of the size defined by
+     * {@link #withBulkChunkSize(int)}, as soon as their number reaches the given maximum, after the given maximum delay, and on
+     * {@link #close()}. So repeated writes of the same ids, like updates of counters, are written only once per flush.<br>
+     * <br>
+     * {@link #get(Comparable)}, {@link #getAll(Collection)} and {@link #containsId(Comparable)} consult the pending write operations first, all
+     * other operations flush them before they access the store. Pending write operations are lost, if the process terminates without
+     * {@link #close()}.
+     * 
+     * @see #flushPendingWrites()
+     * @param maxDelay
+     * @param timeUnit
+     * @param maxPendingWrites
+     * @return
+     */
+    public synchronized NitriteElementRepository<I, D> usingWriteBehind(long maxDelay, TimeUnit timeUnit, int maxPendingWrites)
     {
-        return this.withMappingExceptionHandler(e -> LOG.trace("Unable to serialize/deserialize element instance", e));
+        if (maxPendingWrites <= 0)
+        {
+            throw new IllegalArgumentException("Maximum number of pending writes must be positive: " + maxPendingWrites);
+        }
+        if (this.writeBehindBuffer != null)
+        {
+            this.writeBehindBuffer.close();
+        }
+        this.writeBehindBuffer = new WriteBehindBuffer<>(this::writePendingWrites, maxDelay, timeUnit, maxPendingWrites);
+        return this;
     }
 
-    private DatabaseAndRepository<D> createDatabase()
+    /**
+     * Writes all pending write operations of the buffer enabled by {@link #usingWriteBehind(long, TimeUnit, int)}
+     */
+    public void flushPendingWrites()
     {
-        ExceptionUtils.executeSilentVoid(() -> FileUtils.forceMkdirParent(this.file));
-        NitriteBuilder builder = Nitrite.builder()
-                                        .compressed()
-                                        .nitriteMapper(this.createMapper(this.dataType))
-                                        .filePath(this.file);
-        Nitrite db = this.username != null ? builder.openOrCreate(this.username, this.password) : builder.openOrCreate();
+        WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+        if (writeBehindBuffer != null)
+        {
+            writeBehindBuffer.flush();
+        }
+    }
 
-        return new DatabaseAndRepository<D>(() -> db.getRepository(Element.class), db, this.commitExecutor);
+    boolean isUsingWriteBehind()
+    {
+        return this.writeBehindBuffer != null;
     }
 
-    private NitriteMapper createMapper(Class<D> elementType)
+    private void writePendingWrites(Map<I, NullOptional<D>> writes)
     {
-        return new NitriteMapper()
+        this.measureVoid(Operation.FLUSH, () ->
         {
-            private NitriteMapper nitriteMapper = new JacksonMapper();
+            BatchUtils.chunked(writes.entrySet()
+                                     .stream(),
+                               this.bulkChunkSize)
+                      .forEach(chunk -> this.applyTransaction(this.getRepository(), chunk.stream()
+                                                                                         .collect(Collectors.toMap(Entry::getKey, Entry::getValue))));
+        });
+    }
 
-            @Override
-            public <T> Document asDocument(T object)
+    /**
+     * Enables a background compaction of the store file. The compaction runs only if no write operation has occurred for the given idle time
+     * and if the fill rate of the store file has dropped below the given target fill rate. Each run rewrites at most the given number of bytes
+     * of partially filled chunks, so that the compaction does not starve the foreground operations. The space freed by the background
+     * compaction is reused by subsequent writes, so the store file stops growing, but to shrink the file use {@link #compact()}.
+     * 
+     * @see #compact()
+     * @param idleTime
+     * @param timeUnit
+     * @param targetFillRate
+     *            percentage of live data between 0 and 100 below which the compaction is triggered
+     * @param maxRewriteBytesPerRun
+     * @return
+     */
+    public synchronized NitriteElementRepository<I, D> usingBackgroundCompaction(long idleTime, TimeUnit timeUnit, int targetFillRate,
+                                                                                 int maxRewriteBytesPerRun)
+    {
+        if (targetFillRate <= 0 || targetFillRate > 100)
+        {
+            throw new IllegalArgumentException("Target fill rate must be between 1 and 100: " + targetFillRate);
+        }
+        if (this.compactor != null)
+        {
+            this.compactor.shutdownNow();
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "NitriteCompactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long idleTimeInNanos = timeUnit.toNanos(idleTime);
+        this.compactor.scheduleWithFixedDelay(() ->
+        {
+            try
             {
-                return this.nitriteMapper.asDocument(object);
+                this.compactIfIdle(idleTimeInNanos, targetFillRate, maxRewriteBytesPerRun);
             }
-
-            @SuppressWarnings("unchecked")
-            @Override
-            public <T> T asObject(Document document, Class<T> type)
+            catch (Exception e)
             {
-                Object rawElement = document.get("element");
-                Object object = null;
-                if (rawElement instanceof Document)
-                {
-                    object = this.nitriteMapper.asObject((Document) rawElement, (Class<Object>) elementType);
-                }
-                else if (rawElement == null || type.isAssignableFrom(rawElement.getClass()))
-                {
-                    object = rawElement;
-                }
-                else
-                {
-                    try
-                    {
-                        object = ReflectionUtils.newInstance(elementType, rawElement);
-                    }
-                    catch (Exception e)
-                    {
-                        throw new IllegalStateException(e);
-                    }
-                }
-
-                Object id = document.get("id");
-                T element = (T) Element.of(id, object);
-                return element;
+                LOG.error("Background compaction failed", e);
             }
+        }, idleTime, idleTime, timeUnit);
+        return this;
+    }
 
-            @Override
-            public boolean isValueType(Object object)
-            {
-                return this.nitriteMapper.isValueType(object);
-            }
+    private void compactIfIdle(long idleTimeInNanos, int targetFillRate, int maxRewriteBytes)
+    {
+        DatabaseAndRepository<D> repository = this.getRepository();
+        Optional<MVStore> store = repository.getMVStore()
+                                            .filter(mvStore -> mvStore.getFileStore() != null && !repository.isReadOnly());
+        long lastWriteNanos = repository.getLastWriteNanos();
+        if (!store.isPresent() || System.nanoTime() - lastWriteNanos < idleTimeInNanos || lastWriteNanos == this.compactedUpToWriteNanos)
+        {
+            return;
+        }
 
-            @Override
-            public Object asValue(Object object)
+        if (this.valueLog != null)
+        {
+            this.compactValueLog();
+        }
+
+        MVStore mvStore = store.get();
+        int fillRate = mvStore.getChunksFillRate();
+        boolean improved = false;
+        if (fillRate < targetFillRate)
+        {
+            long fileSize = mvStore.getFileStore()
+                                   .size();
+            long start = System.nanoTime();
+            if (mvStore.compact(targetFillRate, maxRewriteBytes))
             {
-                return this.nitriteMapper.asValue(object);
+                this.metrics.recordCompaction(fileSize - mvStore.getFileStore()
+                                                                .size(),
+                                              System.nanoTime() - start);
+                improved = mvStore.getChunksFillRate() > fillRate;
             }
-
-        };
+        }
+        if (!improved)
+        {
+            // further runs are pointless until the next write operation
+            this.compactedUpToWriteNanos = lastWriteNanos;
+        }
+        this.recordStoreSize(mvStore);
     }
 
-    @Override
-    public I add(D element)
+    /**
+     * Commits all pending write operations and compacts the store file, so that the space of removed and overwritten elements is reclaimed
+     * and the file shrinks. This rewrites all partially filled chunks and can take a while for large stores. Open
+     * {@link NitriteRepositorySnapshot}s are not affected.
+     * 
+     * @see #usingBackgroundCompaction(long, TimeUnit, int, int)
+     * @return the number of bytes the store file has shrunk by
+     */
+    public long compact()
     {
-        return this.getRepository()
-                   .executeWriteOnRepositoryAndGet(repository ->
-                   {
-                       I id = this.idSupplier.get()
-                                             .get();
-                       repository.insert(Element.of(id, element));
-                       return id;
-                   });
-    }
+        DatabaseAndRepository<D> repository = this.getRepository();
+        repository.assertWritable();
+        Optional<MVStore> store = repository.getMVStore();
+        if (!store.isPresent() || store.get()
+                                       .getFileStore() == null)
+        {
+            return 0;
+        }
 
-    @Override
-    public Stream<I> addAll(Stream<D> elements)
-    {
-        return this.getRepository()
-                   .executeWriteOnRepositoryAndGet(repository -> elements.map(element ->
-                   {
-                       I id = this.idSupplier.get()
-                                             .get();
-                       repository.insert(Element.of(id, element));
-                       return id;
-                   })
-                                                                         .collect(Collectors.toList())
-                                                                         .stream());
+        this.commitExecutor.commitImmediate();
+
+        MVStore mvStore = store.get();
+        long fileSize = mvStore.getFileStore()
+                               .size();
+        long start = System.nanoTime();
+        int retentionTime = mvStore.getRetentionTime();
+        try
+        {
+            // unused chunks must be freed immediately, otherwise the rewritten chunks can not be reused
+            mvStore.setRetentionTime(0);
+
+            // rewriting a chunk always creates a new partially filled chunk, so stop as soon as the fill rate does not improve anymore
+            int fillRate = mvStore.getChunksFillRate();
+            while (fillRate < COMPACTION_TARGET_FILL_RATE && mvStore.compact(COMPACTION_TARGET_FILL_RATE, COMPACTION_MAX_REWRITE_BYTES))
+            {
+                mvStore.commit();
+                int previousFillRate = fillRate;
+                fillRate = mvStore.getChunksFillRate();
+                if (fillRate <= previousFillRate)
+                {
+                    break;
+                }
+            }
+            mvStore.compactMoveChunks();
+        }
+        finally
+        {
+            mvStore.setRetentionTime(retentionTime);
+        }
+        long reclaimedBytes = fileSize - mvStore.getFileStore()
+                                                .size();
+        this.metrics.recordCompaction(reclaimedBytes, System.nanoTime() - start);
+        this.recordStoreSize(mvStore);
+        return reclaimedBytes;
     }
 
-    @Override
-    public void put(I id, D element)
+    /**
+     * Stores elements, whose serialized form has at least the given number of bytes, in an append only value log within a directory next to
+     * the repository file, see {@link #usingValueLog(File, int, int)}
+     * 
+     * @param thresholdInBytes
+     * @return
+     */
+    public NitriteElementRepository<I, D> usingValueLog(int thresholdInBytes)
     {
-        this.idSupplier.get()
-                       .accept(id);
-        this.getRepository()
-            .executeWriteOnRepository(repository -> repository.update(Element.of(id, element), true));
+        if (this.file == null)
+        {
+            throw new IllegalStateException("The value log requires a repository file");
+        }
+        return this.usingValueLog(new File(this.file.getPath() + ".vlog"), thresholdInBytes, VALUE_LOG_SEGMENT_SIZE);
     }
 
+    /**
+     * Stores elements, whose serialized form has at least the given number of bytes, in an append only value log of memory mapped segment
+     * files within the given directory. The stored {@link Document} then only contains the location of the element within the value log, so
+     * large elements are neither rewritten by updates of the store nor do they fill its page cache, and they are deserialized directly from
+     * the mapped files. The value log is written to disk before each commit of the store, so the own autocommit of the store, which would
+     * commit without it, is disabled and the store is only committed according to the {@link AutoCommitMode}.<br>
+     * <br>
+     * Replaced and removed elements remain in the value log until {@link #compactValueLog()} rewrites the live elements of sparsely used
+     * segments, which is also done by the background compaction. Fields of elements within the value log can not be indexed. Segments are
+     * not removed while a {@link NitriteRepositorySnapshot} is open, e.g. during {@link #exportTo(File)}.<br>
+     * <br>
+     * The value log wraps the current {@link JacksonElementCodec}, so it has to be enabled after {@link #withElementCodec(ElementCodec)}.
+     * 
+     * @param directory
+     * @param thresholdInBytes
+     * @param segmentSize
+     *            maximum size of each segment file in bytes
+     * @return
+     */
     @SuppressWarnings("unchecked")
-    @Override
-    public void putAll(Map<I, D> map)
+    public synchronized NitriteElementRepository<I, D> usingValueLog(File directory, int thresholdInBytes, int segmentSize)
     {
-        if (MapUtils.isNotEmpty(map))
+        if (this.valueLog != null)
         {
-            map.keySet()
-               .forEach(id -> this.idSupplier.get()
-                                             .accept(id));
-            this.getRepository()
-                .executeWriteOnRepository(repository ->
-                {
-                    //
-                    Set<I> existingIds = repository.find(ObjectFilters.in("id", map.keySet()
-                                                                                   .toArray()))
-                                                   .toList()
-                                                   .stream()
-                                                   .map(element -> (I) element.getId())
-                                                   .collect(Collectors.toSet());
-
-                    Map<Boolean, List<Entry<I, D>>> existingToEntries = map.entrySet()
-                                                                           .stream()
-                                                                           .collect(Collectors.groupingBy(entry -> existingIds.contains(entry.getKey())));
-
-                    List<Entry<I, D>> nonExistingEntries = existingToEntries.getOrDefault(false, Collections.emptyList());
-                    List<Entry<I, D>> existingEntries = existingToEntries.getOrDefault(true, Collections.emptyList());
-
-                    // insert non existing
-                    try
-                    {
-                        if (!nonExistingEntries.isEmpty())
-                        {
-                            repository.insert(nonExistingEntries.stream()
-                                                                .map(entry -> Element.of(entry.getKey(), entry.getValue()))
-                                                                .toArray(length -> new Element[length]));
-                            this.getRepository()
-                                .getDatabase()
-                                .commit();
-                        }
-                    }
-                    catch (UniqueConstraintException e)
-                    {
-                        nonExistingEntries.forEach(entry -> repository.update(Element.of(entry.getKey(), entry.getValue()), true));
-                    }
+            throw new IllegalStateException("The value log is already in use: " + this.valueLog);
+        }
+        if (!(this.elementCodec instanceof JacksonElementCodec))
+        {
+            throw new IllegalStateException("The value log requires a JacksonElementCodec: " + this.elementCodec);
+        }
+        if (thresholdInBytes <= 0 || segmentSize <= 0)
+        {
+            throw new IllegalArgumentException("Threshold and segment size must be positive: " + thresholdInBytes + ", " + segmentSize);
+        }
 
-                    // update already existing
-                    if (!existingEntries.isEmpty())
-                    {
-                        existingEntries.forEach(entry -> repository.update(Element.of(entry.getKey(), entry.getValue()), true));
-                    }
-                });
+        ValueLog valueLog = new ValueLog(directory, segmentSize);
+        this.valueLog = valueLog;
+        this.addPreCommitListener(valueLog::force);
+        if (this.databaseCreated)
+        {
+            this.disableStoreAutoCommit(this.getRepository()
+                                            .getMVStore(),
+                                        valueLog);
         }
+        return this.withElementCodec(new ValueLogElementCodec<>((JacksonElementCodec<D>) this.elementCodec, valueLog, thresholdInBytes));
     }
 
-    @Override
-    public void remove(I id)
+    /**
+     * Rewrites the live elements of all sealed segments of the value log, which are used by less than half by live elements, into the
+     * active segment and removes the sealed segments afterwards. Write operations are blocked while the elements are rewritten. While a
+     * {@link NitriteRepositorySnapshot} is open, which may still refer to the sealed segments, nothing is removed. The files of the removed
+     * segments are kept for concurrent reads until the next compaction.
+     * 
+     * @see #usingValueLog(int)
+     * @return the number of bytes which have been removed from the value log
+     */
+    public long compactValueLog()
     {
-        this.getRepository()
-            .executeWriteOnRepository(repository -> repository.remove(Element.of(id, null)));
-    }
+        ValueLog valueLog = this.valueLog;
+        DatabaseAndRepository<D> repository = this.getRepository();
+        if (valueLog == null || repository.isReadOnly())
+        {
+            return 0;
+        }
+
+        // the segments retired by the previous compaction are no longer referenced by readers, which have fetched their pointers before
+        valueLog.deleteRetiredSegments();
+        if (this.openSnapshots.get() > 0)
+        {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        Map<Integer, Long> liveBytes = new HashMap<>();
+        this.forEachValueLogPointer((id, pointer) -> liveBytes.merge(pointer.getSegment(), (long) pointer.getLength(), Long::sum));
+        Map<Integer, Long> sparseSegments = valueLog.getSealedSegmentSizes()
+                                                    .entrySet()
+                                                    .stream()
+                                                    .filter(segment -> liveBytes.getOrDefault(segment.getKey(), 0l) < segment.getValue()
+                                                            * VALUE_LOG_MIN_LIVE_RATIO)
+                                                    .collect(Collectors.toMap(Entry::getKey, Entry::getValue));
+        if (sparseSegments.isEmpty())
+        {
+            return 0;
+        }
+
+        List<I> ids = new ArrayList<>();
+        this.forEachValueLogPointer((id, pointer) ->
+        {
+            if (sparseSegments.containsKey(pointer.getSegment()))
+            {
+                ids.add(id);
+            }
+        });
+        BatchUtils.chunked(ids.stream(), this.bulkChunkSize)
+                  .forEach(chunk -> repository.executeExclusiveWriteOnRepositoryAndGet(objectRepository ->
+                  {
+                      for (I id : chunk)
+                      {
+                          NitriteId internalId = this.getInternalId(id);
+                          Document document = internalId != null ? this.getDocumentByInternalId(internalId.getIdValue()) : null;
+                          ValueLog.Pointer pointer = document != null ? ValueLogElementCodec.toPointer(document.get(ELEMENT_FIELD)) : null;
+                          if (pointer != null && sparseSegments.containsKey(pointer.getSegment()))
+                          {
+                              byte[] value = valueLog.read(pointer, buffer ->
+                              {
+                                  byte[] bytes = new byte[buffer.remaining()];
+                                  buffer.get(bytes);
+                                  return bytes;
+                              });
+                              ValueLog.Pointer relocatedPointer = valueLog.append(value);
+                              objectRepository.getDocumentCollection()
+                                              .update(Filters.eq("id", id),
+                                                      Document.createDocument(ELEMENT_FIELD, ValueLogElementCodec.toDocument(relocatedPointer)));
+                          }
+                      }
+                      return null;
+                  }));
+
+        // the rewritten elements must be committed, before the old segments can be removed
+        this.commitExecutor.commitImmediate();
+
+        // snapshots opened after the commit refer only to the rewritten elements, the segments of older ones are removed by a later compaction
+        if (this.openSnapshots.get() > 0)
+        {
+            return 0;
+        }
+        sparseSegments.keySet()
+                      .forEach(valueLog::retireSegment);
+
+        long reclaimedBytes = sparseSegments.values()
+                                            .stream()
+                                            .mapToLong(Long::longValue)
+                                            .sum();
+        this.metrics.recordCompaction(reclaimedBytes, System.nanoTime() - start);
+        return reclaimedBytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEachValueLogPointer(BiConsumer<I, ValueLog.Pointer> consumer)
+    {
+        Cursor<Object, Object> cursor = this.getRepository()
+                                            .getDocumentMap()
+                                            .cursor(null);
+        while (cursor.hasNext())
+        {
+            cursor.next();
+            Document document = (Document) cursor.getValue();
+            ValueLog.Pointer pointer = ValueLogElementCodec.toPointer(document.get(ELEMENT_FIELD));
+            if (pointer != null)
+            {
+                consumer.accept((I) document.get("id"), pointer);
+            }
+        }
+    }
+
+    private void recordStoreSize(MVStore mvStore)
+    {
+        if (mvStore.getFileStore() == null)
+        {
+            return;
+        }
+        long fileSize = mvStore.getFileStore()
+                               .size();
+        this.metrics.recordStoreFileSize(fileSize);
+        this.metrics.recordStoreLiveSize(fileSize * mvStore.getFileStore()
+                                                           .getFillRate()
+                / 100 * mvStore.getChunksFillRate() / 100);
+    }
+
+    /**
+     * Enables a bounded on-heap read-through cache for {@link #get(Comparable)} and {@link #getAll(Collection)}. All write operations of this
+     * {@link NitriteElementRepository} invalidate the affected cache entries.<br>
+     * <br>
+     * Be aware that cached element instances are returned as they are, so they should not be modified by the caller.
+     * 
+     * @see #withElementCache(long, long, ToLongFunction)
+     * @see #getElementCacheStatistics()
+     * @param maximumSize
+     *            maximum number of cached elements
+     * @return
+     */
+    public NitriteElementRepository<I, D> withElementCache(long maximumSize)
+    {
+        return this.withElementCache(maximumSize, Long.MAX_VALUE, element -> 1);
+    }
+
+    /**
+     * Similar to {@link #withElementCache(long)} but additionally evicts elements if the sum of all element weights exceeds the given maximum
+     * weight
+     * 
+     * @param maximumSize
+     * @param maximumWeight
+     * @param weigher
+     * @return
+     */
+    public NitriteElementRepository<I, D> withElementCache(long maximumSize, long maximumWeight, ToLongFunction<D> weigher)
+    {
+        this.elementCache = new ElementCache<>(maximumSize, maximumWeight, weigher);
+        return this;
+    }
+
+    /**
+     * Returns the {@link ElementCache.Statistics} of the cache enabled by {@link #withElementCache(long)}
+     * 
+     * @return
+     */
+    public Optional<ElementCache.Statistics> getElementCacheStatistics()
+    {
+        return Optional.ofNullable(this.elementCache)
+                       .map(ElementCache::getStatistics);
+    }
+
+    private void afterWrite(I id)
+    {
+        if (this.elementCache != null)
+        {
+            this.elementCache.invalidate(id);
+        }
+        if (!this.writeListeners.isEmpty())
+        {
+            List<I> ids = Collections.singletonList(id);
+            this.writeListeners.forEach(listener -> listener.accept(ids));
+        }
+    }
+
+    private void afterWrite(Collection<I> ids)
+    {
+        if (this.elementCache != null)
+        {
+            this.elementCache.invalidateAll(ids);
+        }
+        this.writeListeners.forEach(listener -> listener.accept(ids));
+    }
+
+    /**
+     * Sets the number of elements which are written and committed together by bulk operations like {@link #putAll(Stream)}, default is 10000
+     * 
+     * @param bulkChunkSize
+     * @return
+     */
+    public NitriteElementRepository<I, D> withBulkChunkSize(int bulkChunkSize)
+    {
+        if (bulkChunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Bulk chunk size must be positive: " + bulkChunkSize);
+        }
+        this.bulkChunkSize = bulkChunkSize;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of ids which are looked up by a single query of {@link #getAll(Collection)}, default is 1000. Larger id
+     * collections are split into chunks of this size.
+     * 
+     * @see #usingParallelReads()
+     * @param readChunkSize
+     * @return
+     */
+    public NitriteElementRepository<I, D> withReadChunkSize(int readChunkSize)
+    {
+        if (readChunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Read chunk size must be positive: " + readChunkSize);
+        }
+        this.readChunkSize = readChunkSize;
+        return this;
+    }
+
+    /**
+     * Loads and deserializes the chunks of {@link #getAll(Collection)} in parallel on the {@link ForkJoinPool#commonPool()}
+     * 
+     * @see #withReadChunkSize(int)
+     * @see #usingParallelReads(ForkJoinPool)
+     * @return
+     */
+    public NitriteElementRepository<I, D> usingParallelReads()
+    {
+        return this.usingParallelReads(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Similar to {@link #usingParallelReads()} but uses the given {@link ForkJoinPool}. A null value disables the parallel reads.
+     * 
+     * @param readPool
+     * @return
+     */
+    public NitriteElementRepository<I, D> usingParallelReads(ForkJoinPool readPool)
+    {
+        this.readPool = readPool;
+        return this;
+    }
+
+    /**
+     * Sets the {@link RepositoryMetrics} which records the repository operations, the commits and the mapping exceptions. Default is
+     * {@link RepositoryMetrics#NOOP}.
+     * 
+     * @see HistogramRepositoryMetrics
+     * @param metrics
+     * @return
+     */
+    public NitriteElementRepository<I, D> withMetrics(RepositoryMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : RepositoryMetrics.NOOP;
+        if (this.commitExecutor != null)
+        {
+            this.commitExecutor.setMetrics(this.metrics);
+        }
+        return this;
+    }
+
+    <R> R measure(Operation operation, Supplier<R> execution)
+    {
+        RepositoryMetrics metrics = this.metrics;
+        if (metrics == RepositoryMetrics.NOOP)
+        {
+            return execution.get();
+        }
+
+        metrics.onOperationStart(operation);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try
+        {
+            R retval = execution.get();
+            failed = false;
+            return retval;
+        }
+        finally
+        {
+            metrics.recordOperation(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    private void measureVoid(Operation operation, Runnable execution)
+    {
+        this.measure(operation, () ->
+        {
+            execution.run();
+            return null;
+        });
+    }
+
+    private void handleMappingException(Exception e)
+    {
+        this.metrics.recordMappingException();
+        this.mappingExceptionHandler.accept(e);
+    }
+
+    public NitriteElementRepository<I, D> withMappingExceptionHandler(Consumer<Exception> mappingExceptionHandler)
+    {
+        this.mappingExceptionHandler = mappingExceptionHandler;
+        return this;
+    }
+
+    public NitriteElementRepository<I, D> withIgnoreMappingExceptions()
+    {
+        return this.withMappingExceptionHandler(e -> LOG.trace("Unable to serialize/deserialize element instance", e));
+    }
+
+    /**
+     * Registers a listener which is called before each commit of the {@link CommitExecutor}, e.g. to write metadata which should be committed
+     * together with the elements
+     * 
+     * @param listener
+     */
+    protected void addPreCommitListener(Runnable listener)
+    {
+        if (this.commitExecutor != null)
+        {
+            this.commitExecutor.addPreCommitListener(listener);
+        }
+    }
+
+    /**
+     * Registers a listener which is called with the ids of the elements after they have been written or removed, but not by {@link #clear()}
+     * 
+     * @param listener
+     */
+    protected void addWriteListener(Consumer<Collection<I>> listener)
+    {
+        this.writeListeners.add(listener);
+    }
+
+    /**
+     * Returns the metadata value for the given key, which has been written by {@link #writeMetadata(String, Object)}
+     * 
+     * @param key
+     * @return
+     */
+    protected Optional<Object> readMetadata(String key)
+    {
+        return Optional.ofNullable(this.getMetadataCollection()
+                                       .find(Filters.eq(METADATA_KEY, key))
+                                       .firstOrDefault())
+                       .map(document -> document.get(METADATA_VALUE));
+    }
+
+    /**
+     * Writes a metadata value into the store. The value is persisted with the next commit.
+     * 
+     * @param key
+     * @param value
+     */
+    protected void writeMetadata(String key, Object value)
+    {
+        this.getMetadataCollection()
+            .update(Filters.eq(METADATA_KEY, key), Document.createDocument(METADATA_KEY, key)
+                                                           .put(METADATA_VALUE, value),
+                    UpdateOptions.updateOptions(true));
+    }
+
+    private NitriteCollection getMetadataCollection()
+    {
+        return this.getRepository()
+                   .getDatabase()
+                   .getCollection(METADATA_COLLECTION);
+    }
+
+    /**
+     * Creates an index on the given field path within the stored elements, if it does not exist yet
+     * 
+     * @param fieldPath
+     *            e.g. "field" or "field.subField"
+     * @param indexType
+     */
+    private void ensureElementFieldIndex(String fieldPath, IndexType indexType)
+    {
+        this.getRepository()
+            .executeReadOnRepositoryAndGet(repository ->
+            {
+                createElementFieldIndexIfAbsent(repository, fieldPath, indexType);
+                return null;
+            });
+    }
+
+    private static void createElementFieldIndexIfAbsent(ObjectRepository<Element> repository, String fieldPath, IndexType indexType)
+    {
+        String field = toElementFieldPath(fieldPath);
+        if (!repository.hasIndex(field))
+        {
+            repository.createIndex(field, IndexOptions.indexOptions(indexType));
+        }
+    }
+
+    /**
+     * Declares a secondary index on the given field path within the stored elements. The index is created when the store is opened, if it
+     * does not exist yet, and is maintained by all write operations. An {@link IndexType#Unique} index lets write operations with a
+     * duplicate value fail with an {@link UniqueConstraintException}.
+     * 
+     * @see #findByIndex(String, Object)
+     * @see #findIdsByIndex(String, Object)
+     * @see #findByText(String, String)
+     * @param fieldPath
+     *            e.g. "field" or "field.subField"
+     * @param indexType
+     * @return
+     */
+    public NitriteElementRepository<I, D> withIndex(String fieldPath, IndexType indexType)
+    {
+        this.elementFieldIndexes.put(fieldPath, indexType);
+        if (this.databaseCreated)
+        {
+            this.ensureElementFieldIndex(fieldPath, indexType);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the ids of all elements which have the given value at the given field path. The ids are returned lazily in the order of the
+     * index.
+     * 
+     * @see #withIndex(String, IndexType)
+     * @param fieldPath
+     * @param value
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<I> findIdsByIndex(String fieldPath, Object value)
+    {
+        return this.findDocuments(Filters.eq(toElementFieldPath(fieldPath), value))
+                   .map(document -> (I) document.get("id"));
+    }
+
+    /**
+     * Returns all elements which have the given value at the given field path. The elements are deserialized lazily while the returned
+     * {@link Stream} is consumed.
+     * 
+     * @see #withIndex(String, IndexType)
+     * @param fieldPath
+     * @param value
+     * @return
+     */
+    public Stream<D> findByIndex(String fieldPath, Object value)
+    {
+        return this.toElements(this.findDocuments(Filters.eq(toElementFieldPath(fieldPath), value)));
+    }
+
+    /**
+     * Returns the ids of all elements whose field at the given path contains the given text. The field requires an
+     * {@link IndexType#Fulltext} index.
+     * 
+     * @see #withIndex(String, IndexType)
+     * @param fieldPath
+     * @param text
+     *            supports wildcards like "val*"
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<I> findIdsByText(String fieldPath, String text)
+    {
+        return this.findDocuments(Filters.text(toElementFieldPath(fieldPath), text))
+                   .map(document -> (I) document.get("id"));
+    }
+
+    /**
+     * Returns all elements whose field at the given path contains the given text
+     * 
+     * @see #findIdsByText(String, String)
+     * @param fieldPath
+     * @param text
+     * @return
+     */
+    public Stream<D> findByText(String fieldPath, String text)
+    {
+        return this.toElements(this.findDocuments(Filters.text(toElementFieldPath(fieldPath), text)));
+    }
+
+    /**
+     * Returns the raw stored {@link Document} of the element with the given id without mapping it to the element type. Element values which
+     * are stored as plain values instead of {@link Document}s are not returned.
+     * 
+     * @param id
+     * @return
+     */
+    Optional<Document> getElementDocument(I id)
+    {
+        return Optional.ofNullable(this.getFlushedRepository()
+                                       .executeReadOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                                              .find(Filters.eq("id", id))
+                                                                                              .firstOrDefault()))
+                       .map(document -> document.get(ELEMENT_FIELD))
+                       .filter(element -> element instanceof Document)
+                       .map(element -> (Document) element);
+    }
+
+    File getFile()
+    {
+        return this.file;
+    }
+
+    boolean isReadOnly()
+    {
+        return this.options.isReadOnly();
+    }
+
+    /**
+     * Returns the {@link AutoCommitMode} or null for a read only repository
+     * 
+     * @return
+     */
+    AutoCommitMode getAutoCommitMode()
+    {
+        return this.commitExecutor != null ? this.commitExecutor.getAutoCommitMode() : null;
+    }
+
+    /**
+     * Returns a {@link CompletableFuture} which completes as soon as all write operations before this call have been committed to the store,
+     * similar to {@link #putAcknowledged(Comparable, Object)}
+     * 
+     * @return
+     */
+    CompletableFuture<Void> acknowledgeCommit()
+    {
+        return this.getFlushedRepository()
+                   .acknowledgeCommit();
+    }
+
+    /**
+     * Returns the current version of the store, which changes with each commit
+     * 
+     * @return
+     */
+    long getStoreVersion()
+    {
+        return this.getRepository()
+                   .getMVStore()
+                   .orElseThrow(() -> new UnsupportedOperationException("The store of the repository is not accessible"))
+                   .getCurrentVersion();
+    }
+
+    /**
+     * Passes each id together with the internal Nitrite id of its {@link Document} to the given {@link ObjLongConsumer}. Only the id index is
+     * read.
+     * 
+     * @param consumer
+     */
+    @SuppressWarnings("unchecked")
+    void forEachInternalId(ObjLongConsumer<I> consumer)
+    {
+        MVMap<Object, Object> idIndex = this.getRepository()
+                                            .getIdIndexMap()
+                                            .orElseThrow(() -> new UnsupportedOperationException("The id index of the repository is not accessible"));
+        Cursor<Object, Object> cursor = idIndex.cursor(null);
+        while (cursor.hasNext())
+        {
+            I id = (I) cursor.next();
+            for (Object internalId : (Collection<?>) cursor.getValue())
+            {
+                consumer.accept(id, ((NitriteId) internalId).getIdValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the elements in ascending order of the values at the given field path up to the given inclusive boundary, a null
+     * boundary means no limit. The index declared by {@link #withIndex(String, IndexType)} is walked lazily, so only the consumed ids are read.
+     * Without an accessible index the elements are sorted by the field path instead.
+     * 
+     * @param fieldPath
+     * @param to
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Stream<I> idsOrderedByIndex(String fieldPath, Object to)
+    {
+        DatabaseAndRepository<D> repository = this.getFlushedRepository();
+        String field = toElementFieldPath(fieldPath);
+        return Optional.ofNullable(this.elementFieldIndexes.get(fieldPath))
+                       .flatMap(indexType -> repository.getIndexMap(field, indexType))
+                       .map(index -> StreamUtils.fromIterator(new KeyRangeIterator(index, null, to, false))
+                                                .flatMap(key -> new ArrayList<>((Collection<?>) index.getOrDefault(key, Collections.emptySet())).stream())
+                                                .map(internalId -> (Document) repository.getDocumentMap()
+                                                                                        .get(internalId))
+                                                .filter(document -> document != null)
+                                                .map(document -> (I) document.get("id")))
+                       .orElseGet(() -> this.findIds(to != null ? Filters.lte(field, to) : Filters.ALL, field, SortOrder.Ascending, 0, Integer.MAX_VALUE)
+                                            .stream());
+    }
+
+    /**
+     * Returns the internal Nitrite id of the {@link Document} with the given id by reading only the id index, or null if there is none
+     * 
+     * @param id
+     * @return
+     */
+    NitriteId getInternalId(I id)
+    {
+        Object internalIds = this.getRepository()
+                                 .getIdIndexMap()
+                                 .orElseThrow(() -> new UnsupportedOperationException("The id index of the repository is not accessible"))
+                                 .get(id);
+        if (internalIds instanceof Collection)
+        {
+            for (Object internalId : (Collection<?>) internalIds)
+            {
+                return (NitriteId) internalId;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the stored {@link Document} with the given internal Nitrite id, or null if there is none
+     * 
+     * @param internalId
+     * @return
+     */
+    Document getDocumentByInternalId(long internalId)
+    {
+        return (Document) this.getRepository()
+                              .getDocumentMap()
+                              .get(NitriteId.createId(internalId));
+    }
+
+    NullOptional<D> toElement(Document document)
+    {
+        return this.toElement(this.getRepository()
+                                  .getDatabase()
+                                  .getContext()
+                                  .getNitriteMapper(),
+                              document);
+    }
+
+    /**
+     * Returns the highest id of the stored elements
+     * 
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    protected Optional<I> getMaxId()
+    {
+        return Optional.ofNullable(this.getRepository()
+                                       .executeReadOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                                              .find(FindOptions.sort("id", SortOrder.Descending)
+                                                                                                               .thenLimit(0, 1))
+                                                                                              .firstOrDefault()))
+                       .map(document -> (I) document.get("id"));
+    }
+
+    /**
+     * Returns true, if any element with an id greater than the given id exists
+     * 
+     * @param id
+     * @return
+     */
+    protected boolean containsIdGreaterThan(I id)
+    {
+        return this.getRepository()
+                   .executeReadOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                          .find(Filters.gt("id", id))
+                                                                          .firstOrDefault() != null);
+    }
+
+    private DatabaseAndRepository<D> createDatabase()
+    {
+        NitriteBuilder builder = Nitrite.builder()
+                                        .nitriteMapper(this.createMapper());
+        if (this.file != null)
+        {
+            ExceptionUtils.executeSilentVoid(() -> FileUtils.forceMkdirParent(this.file));
+            builder.filePath(this.file);
+        }
+        if (this.options.isCompressed())
+        {
+            builder.compressed();
+        }
+        if (!this.options.isAutoCompact())
+        {
+            builder.disableAutoCompact();
+        }
+        if (this.options.isReadOnly())
+        {
+            builder.readOnly();
+        }
+        if (this.options.getAutoCommitBufferSize() > 0)
+        {
+            builder.autoCommitBufferSize(this.options.getAutoCommitBufferSize());
+        }
+        Nitrite db = this.username != null ? builder.openOrCreate(this.username, this.password) : builder.openOrCreate();
+
+        Optional<MVStore> mvStore = getMVStore(db);
+        if (this.options.getCacheSizeInMB() > 0)
+        {
+            mvStore.ifPresent(store -> store.setCacheSize(this.options.getCacheSizeInMB()));
+        }
+        ValueLog valueLog = this.valueLog;
+        if (valueLog != null)
+        {
+            this.disableStoreAutoCommit(mvStore, valueLog);
+        }
+
+        ObjectRepository<Element> objectRepository = db.getRepository(Element.class);
+        this.elementFieldIndexes.forEach((fieldPath, indexType) -> createElementFieldIndexIfAbsent(objectRepository, fieldPath, indexType));
+        this.databaseCreated = true;
+
+        return new DatabaseAndRepository<D>(() -> db.getRepository(Element.class), db, this.commitExecutor)
+                                                                                                                                            .setMVStore(mvStore);
+    }
+
+    /**
+     * Disables the background autocommit and the autocommit after a certain amount of unsaved memory of the given {@link MVStore}, which
+     * would commit pointers into the given {@link ValueLog} without writing it to disk before. The {@link MVStore} offers no setter for the
+     * memory threshold, so it is reset by reflection, and if that fails, the {@link ValueLog} writes each value to disk instead.
+     * 
+     * @param mvStore
+     * @param valueLog
+     */
+    private void disableStoreAutoCommit(Optional<MVStore> mvStore, ValueLog valueLog)
+    {
+        if (this.options.isReadOnly())
+        {
+            return;
+        }
+
+        try
+        {
+            MVStore store = mvStore.orElseThrow(() -> new IllegalStateException("The store of the repository is not accessible"));
+            store.setAutoCommitDelay(0);
+            Field autoCommitMemoryField = MVStore.class.getDeclaredField("autoCommitMemory");
+            autoCommitMemoryField.setAccessible(true);
+            autoCommitMemoryField.setInt(store, 0);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            LOG.warn("Unable to disable the autocommit of the store, the value log is written to disk on each append", e);
+            valueLog.forceEachAppend();
+        }
+    }
+
+    /**
+     * Returns the {@link MVStore} underlying the given {@link Nitrite} database, which Nitrite does not expose itself
+     * 
+     * @param db
+     * @return
+     */
+    static Optional<MVStore> getMVStore(Nitrite db)
+    {
+        try
+        {
+            Field storeField = Nitrite.class.getDeclaredField("store");
+            storeField.setAccessible(true);
+            Object store = storeField.get(db);
+
+            Field mvStoreField = store.getClass()
+                                      .getDeclaredField("mvStore");
+            mvStoreField.setAccessible(true);
+            return Optional.ofNullable((MVStore) mvStoreField.get(store));
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to access the underlying MVStore of the Nitrite database", e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Creates the {@link NitriteMapper} which converts the {@link Element}s using the {@link ElementCodec} of this repository
+     * 
+     * @return
+     */
+    private NitriteMapper createMapper()
+    {
+        return new NitriteMapper()
+        {
+            private NitriteMapper nitriteMapper = new JacksonMapper();
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public <T> Document asDocument(T object)
+            {
+                if (!(object instanceof Element))
+                {
+                    return this.nitriteMapper.asDocument(object);
+                }
+
+                Element element = (Element) object;
+                Object id = element.getId();
+                Document document = id == null || id instanceof String || id instanceof Number || id instanceof Boolean
+                        ? Document.createDocument("id", id)
+                        : this.nitriteMapper.asDocument(Element.of(id, null));
+                D elementValue = element.getElement();
+                document.put(ELEMENT_FIELD, elementValue != null ? NitriteElementRepository.this.elementCodec.encode(elementValue) : null);
+                return document;
+            }
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public <T> T asObject(Document document, Class<T> type)
+            {
+                if (!Element.class.equals(type))
+                {
+                    return this.nitriteMapper.asObject(document, type);
+                }
+
+                Object value = document.get(ELEMENT_FIELD);
+                return (T) Element.of(document.get("id"), value != null ? NitriteElementRepository.this.elementCodec.decode(value) : null);
+            }
+
+            @Override
+            public boolean isValueType(Object object)
+            {
+                return this.nitriteMapper.isValueType(object);
+            }
+
+            @Override
+            public Object asValue(Object object)
+            {
+                return this.nitriteMapper.asValue(object);
+            }
+
+        };
+    }
+
+    @Override
+    public I add(D element)
+    {
+        return this.measure(Operation.ADD, () ->
+        {
+            return this.getRepository()
+                       .executeWriteOnRepositoryAndGet(repository ->
+                       {
+                           I id = this.idSupplier.get()
+                                                 .get();
+                           repository.insert(Element.of(id, element));
+                           this.afterWrite(id);
+                           return id;
+                       });
+        });
+    }
+
+    @Override
+    public Stream<I> addAll(Stream<D> elements)
+    {
+        List<I> ids = new ArrayList<>();
+        this.addAll(elements, ids::add);
+        return ids.stream();
+    }
+
+    /**
+     * Similar to {@link #addAll(Stream)} but passes the generated ids to the given {@link Consumer} instead of collecting them. The elements
+     * are pulled lazily from the given {@link Stream} and inserted and committed in chunks of the size defined by
+     * {@link #withBulkChunkSize(int)}, so the memory consumption does not depend on the number of elements.
+     * 
+     * @param elements
+     * @param idConsumer
+     */
+    public void addAll(Stream<D> elements, Consumer<I> idConsumer)
+    {
+        this.measureVoid(Operation.ADD_ALL, () ->
+        {
+            BatchUtils.chunked(elements, this.bulkChunkSize)
+                      .forEach(chunk -> this.insertChunk(chunk)
+                                            .forEach(idConsumer));
+        });
+    }
+
+    /**
+     * Similar to {@link #addAll(Stream)} but the elements are only inserted while the returned {@link Stream} of ids is consumed. Each chunk of
+     * the size defined by {@link #withBulkChunkSize(int)} is inserted and committed together.<br>
+     * <br>
+     * Be aware that elements are not inserted at all, if the returned {@link Stream} is not consumed.
+     * 
+     * @param elements
+     * @return
+     */
+    public Stream<I> addAllLazily(Stream<D> elements)
+    {
+        return BatchUtils.chunked(elements, this.bulkChunkSize)
+                         .flatMap(chunk -> this.measure(Operation.ADD_ALL, () -> this.insertChunk(chunk))
+                                               .stream());
+    }
+
+    private List<I> insertChunk(List<D> chunk)
+    {
+        return this.getRepository()
+                   .executeWriteOnRepositoryAndGet(repository ->
+                   {
+                       SupplierConsumer<I> chunkIdSupplier = this.idSupplier.get();
+                       List<I> ids = new ArrayList<>(chunk.size());
+                       Element[] elements = new Element[chunk.size()];
+                       for (D element : chunk)
+                       {
+                           I id = chunkIdSupplier.get();
+                           elements[ids.size()] = Element.of(id, element);
+                           ids.add(id);
+                       }
+
+                       try
+                       {
+                           repository.insert(elements);
+                       }
+                       finally
+                       {
+                           this.afterWrite(ids);
+                       }
+                       return ids;
+                   });
+    }
+
+    /**
+     * Similar to {@link #add(Object)} but returns a {@link CompletableFuture} which completes with the generated id as soon as the element has
+     * been committed to the store
+     * 
+     * @param element
+     * @return
+     */
+    public CompletableFuture<I> addAcknowledged(D element)
+    {
+        return this.measure(Operation.ADD, () ->
+        {
+            return this.getRepository()
+                       .executeWriteOnRepositoryAndAcknowledge(repository ->
+                       {
+                           I id = this.idSupplier.get()
+                                                 .get();
+                           repository.insert(Element.of(id, element));
+                           this.afterWrite(id);
+                           return id;
+                       });
+        });
+    }
 
     @Override
-    public NullOptional<D> get(I id)
+    public void put(I id, D element)
     {
-        return this.getRepository()
-                   .executeReadOnRepositoryAndGet(repository ->
-                   {
-                       try
+        this.measureVoid(Operation.PUT, () ->
+        {
+            this.idSupplier.get()
+                           .accept(id);
+            WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+            if (writeBehindBuffer != null)
+            {
+                writeBehindBuffer.write(id, NullOptional.of(element));
+                return;
+            }
+
+            try
+            {
+                this.getRepository()
+                    .executeWriteOnRepository(repository -> repository.update(Element.of(id, element), true));
+            }
+            finally
+            {
+                this.afterWrite(id);
+            }
+        });
+    }
+
+    /**
+     * Similar to {@link #put(Comparable, Object)} but returns a {@link CompletableFuture} which completes as soon as the element has been
+     * committed to the store
+     * 
+     * @param id
+     * @param element
+     * @return
+     */
+    public CompletableFuture<Void> putAcknowledged(I id, D element)
+    {
+        return this.measure(Operation.PUT, () ->
+        {
+            this.idSupplier.get()
+                           .accept(id);
+            return this.getFlushedRepository()
+                       .executeWriteOnRepositoryAndAcknowledge(repository ->
                        {
-                           return NullOptional.ofNullable(repository.find(ObjectFilters.eq("id", id))
-                                                                    .firstOrDefault())
-                                              .mapToNullable(Element::getElement);
-                       }
-                       catch (ObjectMappingException e)
+                           try
+                           {
+                               repository.update(Element.of(id, element), true);
+                               return null;
+                           }
+                           finally
+                           {
+                               this.afterWrite(id);
+                           }
+                       });
+        });
+    }
+
+    @Override
+    public void putAll(Map<I, D> map)
+    {
+        if (MapUtils.isNotEmpty(map))
+        {
+            this.putAll(map.entrySet()
+                           .stream());
+        }
+    }
+
+    /**
+     * Streaming variant of {@link #putAll(Map)} which consumes the given entries lazily in chunks of the size defined by
+     * {@link #withBulkChunkSize(int)}. Each chunk is upserted in bulk and committed once, so the whole set of entries is never held in memory.
+     * 
+     * @param entries
+     */
+    public void putAll(Stream<Entry<I, D>> entries)
+    {
+        this.measureVoid(Operation.PUT_ALL, () ->
+        {
+            BatchUtils.chunked(entries, this.bulkChunkSize)
+                      .forEach(this::upsertChunk);
+        });
+    }
+
+    private void upsertChunk(List<Entry<I, D>> chunk)
+    {
+        Map<I, D> elements = new LinkedHashMap<>();
+        chunk.forEach(entry -> elements.put(entry.getKey(), entry.getValue()));
+        elements.keySet()
+                .forEach(id -> this.idSupplier.get()
+                                              .accept(id));
+        try
+        {
+            this.getFlushedRepository()
+                .executeWriteOnRepository(repository ->
+                {
+                    // determine the existing entries of the chunk within a single pass over the id index, their stored elements are kept to
+                    // restore them if the chunk fails
+                    NitriteCollection collection = repository.getDocumentCollection();
+                    Map<I, Object> previousElements = this.findStoredElements(collection, elements.keySet());
+                    Element[] newElements = elements.entrySet()
+                                                    .stream()
+                                                    .filter(entry -> !previousElements.containsKey(entry.getKey()))
+                                                    .map(entry -> Element.of(entry.getKey(), entry.getValue()))
+                                                    .toArray(length -> new Element[length]);
+                    Set<I> insertedIds = new HashSet<>();
+                    try
+                    {
+                        previousElements.keySet()
+                                        .forEach(id -> repository.update(Element.of(id, elements.get(id)), false));
+                        this.insertOrUpdate(repository, newElements, insertedIds, previousElements);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        this.restore(collection, insertedIds, previousElements);
+                        throw e;
+                    }
+                });
+        }
+        finally
+        {
+            this.afterWrite(elements.keySet());
+        }
+    }
+
+    /**
+     * Returns the stored, not deserialized, elements of the given ids which exist
+     * 
+     * @param collection
+     * @param ids
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private Map<I, Object> findStoredElements(NitriteCollection collection, Collection<I> ids)
+    {
+        Map<I, Object> retmap = new HashMap<>();
+        collection.find(Filters.in("id", ids.toArray()))
+                  .forEach(document -> retmap.put((I) document.get("id"), document.get(ELEMENT_FIELD)));
+        return retmap;
+    }
+
+    /**
+     * Inserts the given new elements in one batch. If the batch fails, the remaining elements are written one after another, and an element
+     * whose id has been inserted by a concurrent writer in the meantime is updated instead. The ids of the inserted elements are added to the
+     * given inserted ids and the previous elements of the updated ones to the given previous elements, so that the caller can restore them.
+     * 
+     * @param repository
+     * @param newElements
+     * @param insertedIds
+     * @param previousElements
+     */
+    private void insertOrUpdate(ObjectRepository<Element> repository, Element[] newElements, Set<I> insertedIds, Map<I, Object> previousElements)
+    {
+        if (newElements.length == 0)
+        {
+            return;
+        }
+
+        // the internal ids are assigned in advance, so that the elements inserted by a failed batch can be determined
+        NitriteCollection collection = repository.getDocumentCollection();
+        NitriteMapper nitriteMapper = this.getRepository()
+                                          .getDatabase()
+                                          .getContext()
+                                          .getNitriteMapper();
+        Document[] documents = new Document[newElements.length];
+        for (int index = 0; index < newElements.length; index++)
+        {
+            documents[index] = nitriteMapper.asDocument(newElements[index]);
+            documents[index].getId();
+        }
+
+        try
+        {
+            collection.insert(documents);
+            Arrays.stream(newElements)
+                  .forEach(element -> insertedIds.add(this.getId(element)));
+        }
+        catch (UniqueConstraintException e)
+        {
+            for (int index = 0; index < newElements.length; index++)
+            {
+                I id = this.getId(newElements[index]);
+                if (collection.getById(documents[index].getId()) != null)
+                {
+                    insertedIds.add(id);
+                }
+                else
+                {
+                    Map<I, Object> concurrentlyInsertedElements = this.findStoredElements(collection, Collections.singleton(id));
+                    if (concurrentlyInsertedElements.isEmpty())
+                    {
+                        collection.insert(documents[index]);
+                        insertedIds.add(id);
+                    }
+                    else
+                    {
+                        previousElements.putAll(concurrentlyInsertedElements);
+                        repository.update(newElements[index], false);
+                    }
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private I getId(Element element)
+    {
+        return (I) element.getId();
+    }
+
+    /**
+     * Removes the given inserted ids and restores the given previous elements without changing their internal ids
+     * 
+     * @param collection
+     * @param insertedIds
+     * @param previousElements
+     */
+    private void restore(NitriteCollection collection, Set<I> insertedIds, Map<I, Object> previousElements)
+    {
+        if (!insertedIds.isEmpty())
+        {
+            collection.remove(Filters.in("id", insertedIds.toArray()));
+        }
+        previousElements.forEach((id, element) -> collection.update(Filters.eq("id", id), Document.createDocument(ELEMENT_FIELD, element)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<I, Document> findStoredDocuments(NitriteCollection collection, Collection<I> ids)
+    {
+        Map<I, Document> retmap = new HashMap<>();
+        collection.find(Filters.in("id", ids.toArray()))
+                  .forEach(document -> retmap.put((I) document.get("id"), new Document(document)));
+        return retmap;
+    }
+
+    /**
+     * Restores the elements with the given ids from the given undo log. Elements without a previous {@link Document} are removed, existing
+     * ones are updated in place and removed ones are inserted again with their previous internal id, so that the {@link MappedIdIndex} stays
+     * valid.
+     * 
+     * @param collection
+     * @param ids
+     * @param undoLog
+     */
+    private void restore(NitriteCollection collection, Collection<I> ids, Map<I, Document> undoLog)
+    {
+        for (I id : ids)
+        {
+            Document previousDocument = undoLog.get(id);
+            if (previousDocument == null)
+            {
+                collection.remove(Filters.eq("id", id));
+            }
+            else if (collection.getById(previousDocument.getId()) != null)
+            {
+                collection.update(Filters.eq("id", id), Document.createDocument(ELEMENT_FIELD, previousDocument.get(ELEMENT_FIELD)));
+            }
+            else
+            {
+                collection.insert(previousDocument);
+            }
+        }
+    }
+
+    /**
+     * Executes the given unit of work as a single transaction. The write operations of the {@link NitriteTransaction} are buffered and applied
+     * together with a single commit after the unit of work has completed. If the unit of work throws an exception, no write operation is
+     * applied. If applying the write operations fails, the previous elements are restored from an undo log before the exception is rethrown.
+     * 
+     * @param unitOfWork
+     */
+    public void inTransaction(Consumer<NitriteTransaction<I, D>> unitOfWork)
+    {
+        this.measureVoid(Operation.TRANSACTION, () ->
+        {
+            NitriteTransaction<I, D> transaction = new NitriteTransaction<>(this::get, () -> this.idSupplier.get()
+                                                                                                      .get());
+            unitOfWork.accept(transaction);
+            this.applyTransaction(this.getFlushedRepository(), transaction.getWrites());
+        });
+    }
+
+    private void applyTransaction(DatabaseAndRepository<D> databaseAndRepository, Map<I, NullOptional<D>> writes)
+    {
+        if (writes.isEmpty())
+        {
+            return;
+        }
+
+        SupplierConsumer<I> idSupplier = this.idSupplier.get();
+        writes.forEach((id, element) ->
+        {
+            if (element.isPresent())
+            {
+                idSupplier.accept(id);
+            }
+        });
+        try
+        {
+            databaseAndRepository.executeWriteOnRepository(repository ->
+            {
+                NitriteCollection collection = repository.getDocumentCollection();
+                Map<I, Document> undoLog = this.findStoredDocuments(collection, writes.keySet());
+                try
+                {
+                    // existing elements are updated in place, so concurrent readers never see them as absent
+                    writes.forEach((id, element) ->
+                    {
+                        if (element.isPresent())
+                        {
+                            repository.update(Element.of(id, element.get()), true);
+                        }
+                        else
+                        {
+                            repository.remove(Element.of(id, null));
+                        }
+                    });
+                }
+                catch (RuntimeException e)
+                {
+                    this.restore(collection, writes.keySet(), undoLog);
+                    throw e;
+                }
+            });
+        }
+        finally
+        {
+            this.afterWrite(writes.keySet());
+        }
+    }
+
+    @Override
+    public void remove(I id)
+    {
+        this.measureVoid(Operation.REMOVE, () ->
+        {
+            WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+            if (writeBehindBuffer != null)
+            {
+                writeBehindBuffer.write(id, NullOptional.empty());
+                return;
+            }
+
+            try
+            {
+                this.getRepository()
+                    .executeWriteOnRepository(repository -> repository.remove(Element.of(id, null)));
+            }
+            finally
+            {
+                this.afterWrite(id);
+            }
+        });
+    }
+
+    /**
+     * Similar to {@link #remove(Comparable)} but returns a {@link CompletableFuture} which completes as soon as the removal has been committed
+     * to the store
+     * 
+     * @param id
+     * @return
+     */
+    public CompletableFuture<Void> removeAcknowledged(I id)
+    {
+        return this.measure(Operation.REMOVE, () ->
+        {
+            return this.getFlushedRepository()
+                       .executeWriteOnRepositoryAndAcknowledge(repository ->
                        {
-                           this.mappingExceptionHandler.accept(e);
-                           return NullOptional.empty();
-                       }
-                   });
+                           try
+                           {
+                               repository.remove(Element.of(id, null));
+                               return null;
+                           }
+                           finally
+                           {
+                               this.afterWrite(id);
+                           }
+                       });
+        });
+    }
+
+    /**
+     * Removes all elements with the given ids in chunks of the size defined by {@link #withBulkChunkSize(int)}, each chunk is removed within a
+     * single pass over the id index and committed once
+     * 
+     * @param ids
+     */
+    public void removeAll(Collection<I> ids)
+    {
+        this.removeAll(ids, Filters.ALL);
+    }
+
+    /**
+     * Removes all elements with the given ids which additionally match the given {@link Filter}
+     * 
+     * @see #toElementFieldPath(String)
+     * @param ids
+     * @param filter
+     * @return the number of removed elements
+     */
+    int removeAll(Collection<I> ids, Filter filter)
+    {
+        return this.measure(Operation.REMOVE_ALL, () ->
+        {
+            return BatchUtils.chunked(ids.stream(), this.bulkChunkSize)
+                             .mapToInt(chunk ->
+                             {
+                                 // Filters.ALL is represented by null
+                                 Filter idFilter = Filters.in("id", chunk.toArray());
+                                 Filter effectiveFilter = filter != null ? Filters.and(idFilter, filter) : idFilter;
+                                 try
+                                 {
+                                     return this.getFlushedRepository()
+                                                .executeWriteOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                                                        .remove(effectiveFilter)
+                                                                                                        .getAffectedCount());
+                                 }
+                                 finally
+                                 {
+                                     this.afterWrite(chunk);
+                                 }
+                             })
+                             .sum();
+        });
+    }
+
+    @Override
+    public NullOptional<D> get(I id)
+    {
+        return this.measure(Operation.GET, () ->
+        {
+            WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+            NullOptional<D> pendingElement = writeBehindBuffer != null ? writeBehindBuffer.get(id) : null;
+            if (pendingElement != null)
+            {
+                return pendingElement;
+            }
+
+            try
+            {
+                if (this.elementCache != null)
+                {
+                    NullOptional<D> cachedElement = this.elementCache.get(id);
+                    if (cachedElement != null)
+                    {
+                        return cachedElement;
+                    }
+
+                    long generation = this.elementCache.getGeneration();
+                    NullOptional<D> element = this.loadElement(id);
+                    this.elementCache.putIfGenerationUnchanged(id, element, generation);
+                    return element;
+                }
+                else
+                {
+                    return this.loadElement(id);
+                }
+            }
+            catch (ObjectMappingException e)
+            {
+                this.handleMappingException(e);
+                return NullOptional.empty();
+            }
+        });
+    }
+
+    private NullOptional<D> loadElement(I id)
+    {
+        return this.getRepository()
+                   .executeReadOnRepositoryAndGet(repository -> NullOptional.ofNullable(repository.find(ObjectFilters.eq("id", id))
+                                                                                                  .firstOrDefault())
+                                                                            .mapToNullable(Element::getElement));
+    }
+
+    @Override
+    public Map<I, D> getAll(Collection<I> ids)
+    {
+        return this.measure(Operation.GET_ALL, () ->
+        {
+            WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+            if (writeBehindBuffer == null)
+            {
+                return this.getAllStored(ids);
+            }
+
+            Map<I, D> pendingElements = new HashMap<>();
+            List<I> storedIds = new ArrayList<>(ids.size());
+            for (I id : ids)
+            {
+                NullOptional<D> pendingElement = writeBehindBuffer.get(id);
+                if (pendingElement == null)
+                {
+                    storedIds.add(id);
+                }
+                else if (pendingElement.isPresent())
+                {
+                    pendingElements.put(id, pendingElement.get());
+                }
+            }
+            Map<I, D> retmap = storedIds.isEmpty() ? new HashMap<>() : this.getAllStored(storedIds);
+            retmap.putAll(pendingElements);
+            return retmap;
+        });
+    }
+
+    private Map<I, D> getAllStored(Collection<I> ids)
+    {
+        if (this.elementCache != null)
+        {
+            Map<I, D> retmap = new HashMap<>();
+            Set<I> missingIds = new HashSet<>(ids);
+            this.elementCache.getAll(ids)
+                             .forEach((id, element) ->
+                             {
+                                 missingIds.remove(id);
+                                 if (element.isPresent())
+                                 {
+                                     retmap.put(id, element.get());
+                                 }
+                             });
+
+            if (!missingIds.isEmpty())
+            {
+                long generation = this.elementCache.getGeneration();
+                Set<I> failedIds = ConcurrentHashMap.newKeySet();
+                Map<I, D> loadedElements = this.loadElements(missingIds, failedIds);
+                missingIds.forEach(id ->
+                {
+                    D element = loadedElements.get(id);
+                    if ((element != null || !loadedElements.containsKey(id)) && !failedIds.contains(id))
+                    {
+                        this.elementCache.putIfGenerationUnchanged(id, NullOptional.ofNullable(element), generation);
+                    }
+                });
+                retmap.putAll(loadedElements);
+            }
+            return retmap;
+        }
+        else
+        {
+            return this.loadElements(ids, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Streaming variant of {@link #getAll(Collection)}. The given ids are consumed lazily in chunks of the size of
+     * {@link #withReadChunkSize(int)}, so only one chunk of elements is held in memory at a time. The order of the chunks is kept, but the
+     * order within a chunk is not defined. Ids without element and elements which can not be deserialized are skipped.
+     * 
+     * @param ids
+     * @return
+     */
+    public Stream<Entry<I, D>> getAll(Stream<I> ids)
+    {
+        return BatchUtils.chunked(ids, this.readChunkSize)
+                         .flatMap(chunk -> this.getAll(chunk)
+                                               .entrySet()
+                                               .stream());
+    }
+
+    private Map<I, D> loadElements(Collection<I> ids, Set<I> failedIds)
+    {
+        if (ids.size() <= this.readChunkSize)
+        {
+            return this.loadChunk(ids, failedIds);
+        }
+
+        List<List<I>> chunks = BatchUtils.chunked(ids.stream(), this.readChunkSize)
+                                         .collect(Collectors.toList());
+        Map<I, D> retmap = new HashMap<>(ids.size());
+        ForkJoinPool readPool = this.readPool;
+        if (readPool != null)
+        {
+            List<CompletableFuture<Map<I, D>>> futures = chunks.stream()
+                                                               .map(chunk -> CompletableFuture.supplyAsync(() -> this.loadChunk(chunk, failedIds),
+                                                                                                            readPool))
+                                                               .collect(Collectors.toList());
+            try
+            {
+                futures.forEach(future -> retmap.putAll(future.join()));
+            }
+            catch (CompletionException e)
+            {
+                if (e.getCause() instanceof RuntimeException)
+                {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        else
+        {
+            chunks.forEach(chunk -> retmap.putAll(this.loadChunk(chunk, failedIds)));
+        }
+        return retmap;
     }
 
-    @Override
+    /**
+     * Loads the elements of the given ids with a single query on the id index. Elements which can not be deserialized are reported to the
+     * mapping exception handler and their ids are added to the given failed ids, without affecting the other elements.
+     * 
+     * @param ids
+     * @param failedIds
+     * @return
+     */
     @SuppressWarnings("unchecked")
-    public Map<I, D> getAll(Collection<I> ids)
+    private Map<I, D> loadChunk(Collection<I> ids, Set<I> failedIds)
     {
-        return this.getRepository()
-                   .executeReadOnRepositoryAndGet(repository ->
-                   {
-                       try
-                       {
-                           return repository.find(ObjectFilters.in("id", ids.toArray()))
-                                            .toList()
-                                            .stream()
-                                            .collect(Collectors.toMap(element -> (I) element.getId(), element -> (D) element.getElement()));
-                       }
-                       catch (ObjectMappingException e)
-                       {
-                           this.mappingExceptionHandler.accept(e);
-                           return Collections.emptyMap();
-                       }
-                   });
+        NitriteMapper nitriteMapper = this.getRepository()
+                                          .getDatabase()
+                                          .getContext()
+                                          .getNitriteMapper();
+        Map<I, D> retmap = new HashMap<>(ids.size());
+        this.findDocuments(Filters.in("id", ids.toArray()))
+            .forEach(document ->
+            {
+                I id = (I) document.get("id");
+                NullOptional<D> element = this.toElement(nitriteMapper, document);
+                if (element.isPresent())
+                {
+                    retmap.put(id, element.get());
+                }
+                else
+                {
+                    failedIds.add(id);
+                }
+            });
+        return retmap;
     }
 
     @Override
     public long size()
     {
-        return this.getRepository()
-                   .executeReadOnRepositoryAndGet(repository -> repository.size());
+        return this.measure(Operation.SIZE, () -> this.getFlushedRepository()
+                                                       .executeReadOnRepositoryAndGet(repository -> repository.size()));
     }
 
     @Override
     public NitriteElementRepository<I, D> clear()
     {
-        this.getRepository()
-            .executeWriteOnRepository(repository -> repository.drop());
-        this.commitExecutor.commitImmediate();
+        WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+        if (writeBehindBuffer != null)
+        {
+            writeBehindBuffer.discard();
+        }
+        try
+        {
+            DatabaseAndRepository<D> databaseAndRepository = this.getRepository();
+            databaseAndRepository.executeWriteOnRepository(repository ->
+            {
+                repository.drop();
+
+                // the declared indexes are dropped together with the collection and have to be created again
+                ObjectRepository<Element> recreatedRepository = databaseAndRepository.getDatabase()
+                                                                                     .getRepository(Element.class);
+                this.elementFieldIndexes.forEach((fieldPath, indexType) -> createElementFieldIndexIfAbsent(recreatedRepository, fieldPath,
+                                                                                                           indexType));
+            });
+            this.commitExecutor.commitImmediate();
+        }
+        finally
+        {
+            if (this.elementCache != null)
+            {
+                this.elementCache.clear();
+            }
+        }
         return this;
     }
 
@@ -504,27 +2402,498 @@ public class NitriteElementRepository<I extends Comparable<I>, D> implements Ele
         return this.repository.get();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Returns the repository after the pending write operations of the write behind buffer have been written, so that operations which
+     * access the store directly observe them. Only the buffered write operations themselves and the reads which consult the buffer first use
+     * {@link #getRepository()}.
+     * 
+     * @return
+     */
+    private DatabaseAndRepository<D> getFlushedRepository()
+    {
+        this.flushPendingWrites();
+        return this.getRepository();
+    }
+
+    /**
+     * Returns the ids by reading only the id index, the stored elements are neither read nor deserialized
+     */
     @Override
     public Stream<I> ids(IdOrder idOrder)
     {
-        return EnumUtils.decideOn(idOrder)
-                        .ifEqualTo(IdOrder.ARBITRARY, () -> StreamUtils.fromIterator(this.getRepository()
-                                                                                         .executeReadOnRepositoryAndGet(repository -> repository.find())
-                                                                                         .iterator())
-                                                                       .map(element -> (I) element.getId()))
-                        .orElseThrow(() -> new IllegalArgumentException("Unsupported IdOrder value: " + idOrder));
+        return this.measure(Operation.IDS, () -> EnumUtils.decideOn(idOrder)
+                                                          .ifEqualTo(IdOrder.ARBITRARY, () -> this.idsFromIndex(SortOrder.Ascending))
+                                                          .orElseThrow(() -> new IllegalArgumentException("Unsupported IdOrder value: " + idOrder)));
+    }
+
+    /**
+     * Returns the ids in the given {@link SortOrder} by reading only the id index. The stored elements are neither read nor deserialized.
+     * 
+     * @param sortOrder
+     * @return
+     */
+    public Stream<I> ids(SortOrder sortOrder)
+    {
+        return this.measure(Operation.IDS, () -> this.idsFromIndex(sortOrder));
+    }
+
+    private Stream<I> idsFromIndex(SortOrder sortOrder)
+    {
+        return this.idsFromIndex(null, null, sortOrder);
+    }
+
+    /**
+     * Returns the ids between the given inclusive boundaries by walking the keys of the id index lazily, a null boundary means no limit
+     * 
+     * @param from
+     * @param to
+     * @param sortOrder
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private Stream<I> idsFromIndex(I from, I to, SortOrder sortOrder)
+    {
+        return this.getFlushedRepository()
+                   .getIdIndexMap()
+                   .map(index -> StreamUtils.fromIterator(new KeyRangeIterator(index, from, to, SortOrder.Descending.equals(sortOrder)))
+                                            .map(id -> (I) id))
+                   .orElseGet(() -> this.findIds(this.createIdRangeFilter(from, to), sortOrder));
+    }
+
+    /**
+     * Iterates the keys of a {@link MVMap} between inclusive boundaries, in ascending order with a {@link Cursor} and in descending order by
+     * {@link MVMap#lowerKey(Object)}
+     * 
+     * @author omnaest
+     */
+    private static class KeyRangeIterator implements Iterator<Object>
+    {
+        private MVMap<Object, Object> map;
+        private Iterator<Object>      cursor;
+        private Object                bound;
+        private boolean               descending;
+        private Object                next;
+
+        public KeyRangeIterator(MVMap<Object, Object> map, Object from, Object to, boolean descending)
+        {
+            super();
+            this.map = map;
+            this.descending = descending;
+            if (descending)
+            {
+                this.bound = from;
+                this.next = to != null ? map.floorKey(to) : map.lastKey();
+            }
+            else
+            {
+                this.bound = to;
+                this.cursor = map.keyIterator(from);
+                this.next = this.cursor.hasNext() ? this.cursor.next() : null;
+            }
+            this.next = this.withinBound(this.next);
+        }
+
+        private Object withinBound(Object key)
+        {
+            if (key == null || this.bound == null)
+            {
+                return key;
+            }
+            int comparison = this.map.getKeyType()
+                                     .compare(key, this.bound);
+            return (this.descending ? comparison >= 0 : comparison <= 0) ? key : null;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return this.next != null;
+        }
+
+        @Override
+        public Object next()
+        {
+            if (this.next == null)
+            {
+                throw new NoSuchElementException();
+            }
+            Object retval = this.next;
+            if (this.descending)
+            {
+                this.next = this.withinBound(this.map.lowerKey(retval));
+            }
+            else
+            {
+                this.next = this.withinBound(this.cursor.hasNext() ? this.cursor.next() : null);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Returns true, if an element with the given id exists. Only the id index is read.
+     * 
+     * @param id
+     * @return
+     */
+    public boolean containsId(I id)
+    {
+        WriteBehindBuffer<I, D> writeBehindBuffer = this.writeBehindBuffer;
+        NullOptional<D> pendingElement = writeBehindBuffer != null ? writeBehindBuffer.get(id) : null;
+        if (pendingElement != null)
+        {
+            return pendingElement.isPresent();
+        }
+
+        DatabaseAndRepository<D> repository = this.getRepository();
+        return repository.getIdIndexMap()
+                         .map(index -> index.containsKey(id))
+                         .orElseGet(() -> repository.executeReadOnRepositoryAndGet(objectRepository -> objectRepository.getDocumentCollection()
+                                                                                                                       .find(Filters.eq("id", id))
+                                                                                                                       .firstOrDefault() != null));
+    }
+
+    /**
+     * Opens a {@link NitriteRepositorySnapshot} of the current state of the repository. The snapshot pins the current version of the store,
+     * so that it is not affected by subsequent write operations, and must be closed to allow the store to reclaim the space of older versions.
+     * Opening a snapshot waits for the write operations in progress, but does neither commit nor block subsequent writes.
+     * 
+     * @throws UnsupportedOperationException
+     *             if the underlying store or the id index is not accessible
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public NitriteRepositorySnapshot<I, D> openSnapshot()
+    {
+        DatabaseAndRepository<D> repository = this.getFlushedRepository();
+        MVStore store = repository.getMVStore()
+                                  .orElseThrow(() -> new UnsupportedOperationException("The store of the repository is not accessible"));
+        NitriteMapper nitriteMapper = repository.getDatabase()
+                                                .getContext()
+                                                .getNitriteMapper();
+        ElementCodec<D> elementCodec = this.elementCodec;
+        UnaryOperator<Object> exportValueMapper = elementCodec instanceof ValueLogElementCodec ? ((ValueLogElementCodec<D>) elementCodec)::inline
+                : UnaryOperator.identity();
+
+        // the counter is incremented before the version is pinned, so that a compaction of the value log never misses an open snapshot
+        this.openSnapshots.incrementAndGet();
+        try
+        {
+            return this.openSnapshot(repository, store, nitriteMapper, exportValueMapper);
+        }
+        catch (RuntimeException e)
+        {
+            this.openSnapshots.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private NitriteRepositorySnapshot<I, D> openSnapshot(DatabaseAndRepository<D> repository, MVStore store, NitriteMapper nitriteMapper,
+                                                         UnaryOperator<Object> exportValueMapper)
+    {
+        return repository.executeExclusively(() ->
+        {
+            MVMap<Object, Object> documents = store.openMap(repository.getCollectionName());
+            MVMap<Object, Object> idIndex = repository.getIdIndexMap()
+                                                      .orElseThrow(() -> new UnsupportedOperationException("The id index of the repository is not accessible"));
+            if (store.isReadOnly())
+            {
+                return new NitriteRepositorySnapshot<I, D>(documents, idIndex, document -> this.toElement(nitriteMapper, document), exportValueMapper,
+                                                           // a read only store has only one version
+                                                           this.openSnapshots::decrementAndGet);
+            }
+
+            TxCounter versionUsage = store.registerVersionUsage();
+            try
+            {
+                long version = store.getCurrentVersion();
+                return new NitriteRepositorySnapshot<I, D>(documents.openVersion(version), idIndex.openVersion(version),
+                                                           document -> this.toElement(nitriteMapper, document), exportValueMapper,
+                                                           () ->
+                                                           {
+                                                               store.deregisterVersionUsage(versionUsage);
+                                                               this.openSnapshots.decrementAndGet();
+                                                           });
+            }
+            catch (RuntimeException e)
+            {
+                store.deregisterVersionUsage(versionUsage);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Exports all elements of a {@link NitriteRepositorySnapshot} of the current state into the given file
+     * 
+     * @see NitriteRepositorySnapshot#exportTo(File)
+     * @see #importFrom(File)
+     * @param file
+     * @return the number of exported elements
+     */
+    public long exportTo(File file)
+    {
+        try (NitriteRepositorySnapshot<I, D> snapshot = this.openSnapshot())
+        {
+            return snapshot.exportTo(file);
+        }
+    }
+
+    /**
+     * Imports all elements of a file written by {@link #exportTo(File)} or {@link NitriteRepositorySnapshot#exportTo(File)}. Existing
+     * elements with the same ids are replaced. The elements are written in chunks of the size defined by {@link #withBulkChunkSize(int)}
+     * without being deserialized.
+     * 
+     * @param file
+     * @return the number of imported elements
+     */
+    public long importFrom(File file)
+    {
+        return this.measure(Operation.PUT_ALL, () ->
+        {
+            try (ObjectInputStream inputStream = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))))
+            {
+                String format = inputStream.readUTF();
+                int version = inputStream.readInt();
+                if (!NitriteRepositorySnapshot.EXPORT_FORMAT.equals(format) || version != NitriteRepositorySnapshot.EXPORT_FORMAT_VERSION)
+                {
+                    throw new IllegalArgumentException("Unsupported export format of file " + file + ": " + format + " " + version);
+                }
+
+                long count = 0;
+                Map<I, Object> chunk = new LinkedHashMap<>();
+                while (inputStream.readBoolean())
+                {
+                    @SuppressWarnings("unchecked")
+                    I id = (I) inputStream.readObject();
+                    chunk.put(id, inputStream.readObject());
+                    if (chunk.size() >= this.bulkChunkSize)
+                    {
+                        count += this.importChunk(chunk);
+                        chunk.clear();
+                    }
+                }
+                count += this.importChunk(chunk);
+                return count;
+            }
+            catch (IOException | ClassNotFoundException e)
+            {
+                throw new IllegalStateException("Unable to import elements from " + file, e);
+            }
+        });
+    }
+
+    private int importChunk(Map<I, Object> rawElements)
+    {
+        if (rawElements.isEmpty())
+        {
+            return 0;
+        }
+
+        SupplierConsumer<I> idSupplier = this.idSupplier.get();
+        rawElements.keySet()
+                   .forEach(idSupplier::accept);
+        try
+        {
+            this.getFlushedRepository()
+                .executeWriteOnRepository(repository ->
+                {
+                    NitriteCollection collection = repository.getDocumentCollection();
+                    collection.remove(Filters.in("id", rawElements.keySet()
+                                                                  .toArray()));
+                    collection.insert(rawElements.entrySet()
+                                                 .stream()
+                                                 .map(entry -> Document.createDocument("id", entry.getKey())
+                                                                       .put(ELEMENT_FIELD, entry.getValue()))
+                                                 .toArray(length -> new Document[length]));
+                });
+        }
+        finally
+        {
+            this.afterWrite(rawElements.keySet());
+        }
+        return rawElements.size();
+    }
+
+    /**
+     * Returns the ids between the given inclusive boundaries in ascending order
+     * 
+     * @see #idsBetween(Comparable, Comparable, SortOrder)
+     * @param from
+     * @param to
+     * @return
+     */
+    public Stream<I> idsBetween(I from, I to)
+    {
+        return this.idsBetween(from, to, SortOrder.Ascending);
+    }
+
+    /**
+     * Returns the ids between the given inclusive boundaries in the given {@link SortOrder}. A null boundary means no limit. The ids are read
+     * lazily from the id index starting at the first boundary.
+     * 
+     * @param from
+     * @param to
+     * @param sortOrder
+     * @return
+     */
+    public Stream<I> idsBetween(I from, I to, SortOrder sortOrder)
+    {
+        return this.measure(Operation.IDS, () -> this.idsFromIndex(from, to, sortOrder));
+    }
+
+    /**
+     * Returns the elements with an id between the given inclusive boundaries in ascending order of their ids. A null boundary means no limit.
+     * The ids are read lazily from the id index and their elements are loaded in chunks of the size defined by {@link #withReadChunkSize(int)}.
+     * 
+     * @param from
+     * @param to
+     * @return
+     */
+    public Stream<D> valuesBetween(I from, I to)
+    {
+        return BatchUtils.chunked(this.idsFromIndex(from, to, SortOrder.Ascending), this.readChunkSize)
+                         .flatMap(chunk ->
+                         {
+                             Map<I, D> elements = this.getAll(chunk);
+                             return chunk.stream()
+                                         .filter(elements::containsKey)
+                                         .map(elements::get);
+                         });
+    }
+
+    private Stream<D> toElements(Stream<Document> documents)
+    {
+        NitriteMapper nitriteMapper = this.getRepository()
+                                          .getDatabase()
+                                          .getContext()
+                                          .getNitriteMapper();
+        return documents.map(document -> this.toElement(nitriteMapper, document))
+                        .filter(NullOptional::isPresent)
+                        .map(NullOptional::get);
+    }
+
+    private NullOptional<D> toElement(NitriteMapper nitriteMapper, Document document)
+    {
+        try
+        {
+            return NullOptional.ofNullable(nitriteMapper.asObject(document, Element.class))
+                               .mapToNullable(Element::<D>getElement);
+        }
+        catch (ObjectMappingException e)
+        {
+            this.handleMappingException(e);
+            return NullOptional.empty();
+        }
+    }
+
+    /**
+     * Returns the ids of the elements matching the given {@link Filter}, sorted by the given field, starting at the given offset and limited
+     * to the given number of ids
+     * 
+     * @see #toElementFieldPath(String)
+     * @param filter
+     * @param sortField
+     * @param sortOrder
+     * @param offset
+     * @param limit
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    List<I> findIds(Filter filter, String sortField, SortOrder sortOrder, int offset, int limit)
+    {
+        return this.getFlushedRepository()
+                   .executeReadOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                          .find(filter, FindOptions.sort(sortField, sortOrder)
+                                                                                                   .thenLimit(offset, limit))
+                                                                          .toList()
+                                                                          .stream()
+                                                                          .map(document -> (I) document.get("id"))
+                                                                          .collect(Collectors.toList()));
+    }
+
+    /**
+     * Returns the path of the given field of the stored element within the stored {@link Document}
+     * 
+     * @param fieldPath
+     * @return
+     */
+    static String toElementFieldPath(String fieldPath)
+    {
+        return ELEMENT_FIELD + "." + fieldPath;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Stream<I> findIds(Filter filter, SortOrder sortOrder)
+    {
+        return this.findDocuments(filter, sortOrder)
+                   .map(document -> (I) document.get("id"));
+    }
+
+    private Stream<Document> findDocuments(Filter filter)
+    {
+        return StreamUtils.fromIterator(this.getFlushedRepository()
+                                            .executeReadOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                                                   .find(filter))
+                                            .iterator());
+    }
+
+    private Stream<Document> findDocuments(Filter filter, SortOrder sortOrder)
+    {
+        return StreamUtils.fromIterator(this.getFlushedRepository()
+                                            .executeReadOnRepositoryAndGet(repository -> repository.getDocumentCollection()
+                                                                                                   .find(filter, FindOptions.sort("id", sortOrder)))
+                                            .iterator());
+    }
+
+    private Filter createIdRangeFilter(I from, I to)
+    {
+        if (from != null && to != null)
+        {
+            return Filters.and(Filters.gte("id", from), Filters.lte("id", to));
+        }
+        else if (from != null)
+        {
+            return Filters.gte("id", from);
+        }
+        else if (to != null)
+        {
+            return Filters.lte("id", to);
+        }
+        else
+        {
+            return Filters.ALL;
+        }
     }
 
     @Override
     public void close()
     {
         LOG.debug("Shutdown...");
+        synchronized (this)
+        {
+            if (this.writeBehindBuffer != null)
+            {
+                this.writeBehindBuffer.close();
+            }
+            if (this.compactor != null)
+            {
+                this.compactor.shutdownNow();
+                ExceptionUtils.executeSilentVoid(() -> this.compactor.awaitTermination(10, TimeUnit.MINUTES));
+            }
+        }
         LOG.debug("  ...executor...");
-        this.commitExecutor.close();
+        if (this.commitExecutor != null)
+        {
+            this.commitExecutor.close();
+        }
         LOG.debug("  ...repository...");
         this.getRepository()
             .closeDatabase();
+        if (this.valueLog != null)
+        {
+            this.valueLog.close();
+        }
         LOG.debug("...done");
     }
 
@@ -1,50 +1,478 @@
 package org.omnaest.repository.nitrite;
 
 import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
-import org.omnaest.utils.MapperUtils;
+import org.dizitart.no2.Document;
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.NitriteId;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics.Operation;
+import org.omnaest.utils.element.cached.CachedElement;
+import org.omnaest.utils.optional.NullOptional;
 import org.omnaest.utils.repository.IndexElementRepository;
 import org.omnaest.utils.supplier.SupplierConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * {@link IndexElementRepository} based on the {@link NitriteElementRepository}.<br>
+ * <br>
+ * The highest allocated id is persisted as metadata with each commit, so opening a repository does not require a scan over all ids. Only if
+ * the metadata is missing or outdated, the highest id is determined from the id index.<br>
+ * <br>
+ * Optionally a memory mapped index of the primitive ids can be enabled by {@link #usingMappedIdIndex()}, which serves {@link #get(long)},
+ * {@link #containsId(long)}, {@link #longIdsBetween(long, long)} and {@link #size()} without boxing and without any heap memory per id.
+ * 
+ * @author omnaest
+ * @param <D>
+ */
 public class NitriteIndexElementRepository<D> extends NitriteElementRepository<Long, D> implements IndexElementRepository<D>
 {
+    private static final Logger LOG = LoggerFactory.getLogger(NitriteIndexElementRepository.class);
+
+    private static final String ID_HIGH_WATER_MARK = "idHighWaterMark";
+
+    private volatile int             idBlockSize = 1;
+    private volatile IndexIdSupplier indexIdSupplier;
+    private volatile File            mappedIdIndexFile;
+    private volatile MappedIdIndex   mappedIdIndex;
+
+    /**
+     * Block of ids reserved by a single thread
+     * 
+     * @author omnaest
+     */
+    private static class IdBlock
+    {
+        private AtomicLong next;
+        private long       end;
+
+        public IdBlock(long start, long end)
+        {
+            super();
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+
+        /**
+         * Returns the next id of the block or -1, if the block is exhausted
+         * 
+         * @return
+         */
+        public long next()
+        {
+            long id = this.next.getAndIncrement();
+            return id < this.end ? id : -1;
+        }
+
+        /**
+         * Skips all ids of the block up to the given id, which has been used by an explicit write operation
+         * 
+         * @param id
+         */
+        public void skip(long id)
+        {
+            if (id < this.end)
+            {
+                this.next.accumulateAndGet(id + 1, Math::max);
+            }
+        }
+
+        public boolean isExhausted()
+        {
+            return this.next.get() >= this.end;
+        }
+    }
+
+    /**
+     * {@link SupplierConsumer} for ascending ids which optionally reserves blocks of ids per thread. Ids which are used by explicit write
+     * operations are skipped within all reserved blocks.
+     * 
+     * @author omnaest
+     */
+    private class IndexIdSupplier implements SupplierConsumer<Long>
+    {
+        private AtomicLong           id;
+        private ThreadLocal<IdBlock> reservedBlock  = new ThreadLocal<>();
+        private Set<IdBlock>         reservedBlocks = new HashSet<>();
+        private long                 persistedId;
+
+        public IndexIdSupplier(long highWaterMark)
+        {
+            super();
+            this.id = new AtomicLong(highWaterMark);
+            this.persistedId = highWaterMark;
+        }
+
+        @Override
+        public Long get()
+        {
+            int blockSize = NitriteIndexElementRepository.this.idBlockSize;
+            if (blockSize <= 1)
+            {
+                return this.id.incrementAndGet();
+            }
+            else
+            {
+                IdBlock block = this.reservedBlock.get();
+                long id = block != null ? block.next() : -1;
+                if (id < 0)
+                {
+                    block = this.reserveBlock(blockSize);
+                    this.reservedBlock.set(block);
+                    id = block.next();
+                }
+                return id;
+            }
+        }
+
+        private synchronized IdBlock reserveBlock(int blockSize)
+        {
+            this.reservedBlocks.removeIf(IdBlock::isExhausted);
+            long start = this.id.getAndAdd(blockSize) + 1;
+            IdBlock block = new IdBlock(start, start + blockSize);
+            this.reservedBlocks.add(block);
+            return block;
+        }
+
+        @Override
+        public void accept(Long value)
+        {
+            long previousId = this.id.getAndUpdate(v -> Math.max(v, value));
+            if (value <= previousId && NitriteIndexElementRepository.this.idBlockSize > 1)
+            {
+                // the id may be part of a block reserved by another thread
+                this.skipInReservedBlocks(value);
+            }
+        }
+
+        private synchronized void skipInReservedBlocks(long id)
+        {
+            this.reservedBlocks.forEach(block -> block.skip(id));
+        }
+
+        public synchronized void persistIfChanged()
+        {
+            long highWaterMark = this.id.get();
+            if (highWaterMark != this.persistedId)
+            {
+                NitriteIndexElementRepository.this.writeMetadata(ID_HIGH_WATER_MARK, highWaterMark);
+                this.persistedId = highWaterMark;
+            }
+        }
+    }
 
     public NitriteIndexElementRepository(Class<D> type, File file)
     {
-        super(type, file, null);
+        this(type, file, new NitriteRepositoryOptions());
+    }
+
+    public NitriteIndexElementRepository(Class<D> type, File file, NitriteRepositoryOptions options)
+    {
+        super(type, file, null, options);
+
+        this.idSupplier = CachedElement.of(this::createIdSupplier);
+        this.addPreCommitListener(() ->
+        {
+            IndexIdSupplier indexIdSupplier = this.indexIdSupplier;
+            if (indexIdSupplier != null)
+            {
+                indexIdSupplier.persistIfChanged();
+            }
+        });
+    }
+
+    /**
+     * Enables the memory mapped index of the primitive ids within a file next to the file of the repository, see
+     * {@link #usingMappedIdIndex(File)}
+     * 
+     * @return
+     */
+    public NitriteIndexElementRepository<D> usingMappedIdIndex()
+    {
+        File file = this.getFile();
+        if (file == null)
+        {
+            throw new IllegalStateException("The mapped id index requires a repository file");
+        }
+        return this.usingMappedIdIndex(new File(file.getPath() + ".ids"));
+    }
+
+    /**
+     * Enables a memory mapped index of the primitive ids within the given file, which maps each id to the location of its element within the
+     * store. It serves {@link #get(long)}, {@link #containsId(long)}, {@link #longIdsBetween(long, long)}, {@link #valuesBetween(long, long)} and
+     * {@link #size()} without boxing the ids and takes 8 bytes per id off heap, which suits large ranges of sequential ids. Ids between 0 and
+     * 2^32-1 are covered by the index, other ids are looked up in the store.<br>
+     * <br>
+     * The index is rebuilt from the id index of the store when it is opened the first time or if it has not been closed together with the
+     * repository.
+     * 
+     * @param file
+     * @return
+     */
+    public synchronized NitriteIndexElementRepository<D> usingMappedIdIndex(File file)
+    {
+        if (this.mappedIdIndexFile == null)
+        {
+            this.addWriteListener(this::updateMappedIdIndex);
+        }
+        else if (this.mappedIdIndex != null)
+        {
+            throw new IllegalStateException("The mapped id index is already in use: " + this.mappedIdIndex);
+        }
+        this.mappedIdIndexFile = file;
+        return this;
+    }
+
+    private MappedIdIndex getMappedIdIndex()
+    {
+        MappedIdIndex index = this.mappedIdIndex;
+        return index != null || this.mappedIdIndexFile == null ? index : this.openMappedIdIndexIfAbsent();
+    }
 
-        this.idSupplier = (Supplier<SupplierConsumer<Long>>) () ->
+    private synchronized MappedIdIndex openMappedIdIndexIfAbsent()
+    {
+        if (this.mappedIdIndex == null)
+        {
+            this.mappedIdIndex = this.openMappedIdIndex(this.mappedIdIndexFile);
+        }
+        return this.mappedIdIndex;
+    }
+
+    private MappedIdIndex openMappedIdIndex(File file)
+    {
+        long storeVersion = this.getStoreVersion();
+        MappedIdIndex index = new MappedIdIndex(file);
+        try
+        {
+            if (index.isValidFor(storeVersion))
+            {
+                index.mapExistingSegments();
+            }
+            else
+            {
+                LOG.debug("Rebuilding the mapped id index " + file);
+                index.reset();
+                this.forEachInternalId((id, internalId) -> index.put(id, internalId));
+            }
+            if (!this.isReadOnly())
+            {
+                index.markDirty();
+            }
+            return index;
+        }
+        catch (RuntimeException e)
+        {
+            index.close();
+            throw e;
+        }
+    }
+
+    private void updateMappedIdIndex(Collection<Long> ids)
+    {
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index != null)
         {
-            AtomicLong id = new AtomicLong(this.ids()
-                                               .mapToLong(MapperUtils.identitiyForLongAsUnboxed())
-                                               .max()
-                                               .orElse(-1));
-            return new SupplierConsumer<Long>()
+            // the lookup and the update are done together, so that the last update of an id reflects its latest state in the store
+            synchronized (index)
             {
-                @Override
-                public Long get()
+                for (Long id : ids)
                 {
-                    return id.incrementAndGet();
+                    NitriteId internalId = this.getInternalId(id);
+                    if (internalId != null)
+                    {
+                        index.put(id, internalId.getIdValue());
+                    }
+                    else
+                    {
+                        index.remove(id);
+                    }
                 }
+            }
+        }
+    }
+
+    /**
+     * Similar to {@link #get(Long)} but uses the index enabled by {@link #usingMappedIdIndex()} to locate the element without boxing the id
+     * 
+     * @param id
+     * @return
+     */
+    public NullOptional<D> get(long id)
+    {
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index == null || !index.covers(id) || this.isUsingWriteBehind())
+        {
+            return this.get(Long.valueOf(id));
+        }
 
-                @Override
-                public void accept(Long value)
+        return this.measure(Operation.GET, () ->
+        {
+            long internalId = index.get(id);
+            if (internalId != 0)
+            {
+                Document document = this.getDocumentByInternalId(internalId);
+                Object storedId = document != null ? document.get("id") : null;
+                if (storedId instanceof Long && (Long) storedId == id)
                 {
-                    id.updateAndGet(v -> Math.max(v, value));
+                    return this.toElement(document);
                 }
-            };
-        };
+            }
+            else if (index.isComplete())
+            {
+                return NullOptional.empty();
+            }
+
+            // the index is outdated by a concurrent write
+            return this.get(Long.valueOf(id));
+        });
+    }
+
+    /**
+     * Similar to {@link #containsId(Comparable)} but uses the index enabled by {@link #usingMappedIdIndex()}
+     * 
+     * @param id
+     * @return
+     */
+    public boolean containsId(long id)
+    {
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index != null && index.covers(id) && !this.isUsingWriteBehind())
+        {
+            if (index.get(id) != 0)
+            {
+                return true;
+            }
+            else if (index.isComplete())
+            {
+                return false;
+            }
+        }
+        return this.containsId(Long.valueOf(id));
+    }
+
+    /**
+     * Similar to {@link #idsBetween(Comparable, Comparable)} but returns primitive ids, which are read from the index enabled by
+     * {@link #usingMappedIdIndex()}
+     * 
+     * @param from
+     * @param to
+     * @return
+     */
+    public LongStream longIdsBetween(long from, long to)
+    {
+        this.flushPendingWrites();
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index != null && index.isComplete())
+        {
+            return this.measure(Operation.IDS, () -> index.ids(from, to));
+        }
+        return this.idsBetween(Long.valueOf(from), Long.valueOf(to))
+                   .mapToLong(Long::longValue);
+    }
+
+    /**
+     * Similar to {@link #valuesBetween(Comparable, Comparable)} but locates the elements by the index enabled by {@link #usingMappedIdIndex()}
+     * 
+     * @param from
+     * @param to
+     * @return
+     */
+    public Stream<D> valuesBetween(long from, long to)
+    {
+        this.flushPendingWrites();
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index != null && index.isComplete())
+        {
+            return index.ids(from, to)
+                        .mapToObj(this::get)
+                        .filter(NullOptional::isPresent)
+                        .map(NullOptional::get);
+        }
+        return this.valuesBetween(Long.valueOf(from), Long.valueOf(to));
+    }
+
+    @Override
+    public long size()
+    {
+        this.flushPendingWrites();
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index != null && index.isComplete())
+        {
+            return this.measure(Operation.SIZE, () -> index.size());
+        }
+        return super.size();
+    }
+
+    private SupplierConsumer<Long> createIdSupplier()
+    {
+        long highWaterMark = this.readMetadata(ID_HIGH_WATER_MARK)
+                                 .filter(value -> value instanceof Number)
+                                 .map(value -> ((Number) value).longValue())
+                                 .filter(value -> !this.containsIdGreaterThan(value))
+                                 .orElseGet(() ->
+                                 {
+                                     LOG.debug("Determining the highest id from the id index");
+                                     return this.getMaxId()
+                                                .orElse(-1l);
+                                 });
+        this.indexIdSupplier = new IndexIdSupplier(highWaterMark);
+        return this.indexIdSupplier;
+    }
+
+    /**
+     * Lets each thread reserve a block of ids of the given size at once, which reduces the contention of many concurrent {@link #add(Object)}
+     * calls. The ids of different threads are then no longer allocated in ascending order and unused ids of reserved blocks are skipped. An id
+     * within a reserved block, which is used by an explicit write operation like {@link #put(Long, Object)}, advances the block past it.
+     * 
+     * @param blockSize
+     * @return
+     */
+    public NitriteIndexElementRepository<D> withIdBlockReservation(int blockSize)
+    {
+        this.idBlockSize = blockSize;
+        return this;
     }
 
     @Override
     public NitriteIndexElementRepository<D> clear()
     {
+        if (this.isReadOnly())
+        {
+            throw new IllegalStateException("The repository has been opened read only");
+        }
+        this.indexIdSupplier = null;
+        this.idSupplier = CachedElement.of(this::createIdSupplier);
+        this.writeMetadata(ID_HIGH_WATER_MARK, -1l);
         super.clear();
+        MappedIdIndex index = this.getMappedIdIndex();
+        if (index != null)
+        {
+            index.clear();
+        }
         return this;
     }
 
+    @Override
+    public void close()
+    {
+        super.close();
+        MappedIdIndex index = this.mappedIdIndex;
+        if (index != null)
+        {
+            index.close(this.getStoreVersion());
+        }
+    }
+
     @Override
     public NitriteIndexElementRepository<D> withCredentials(String username, String password)
     {
@@ -59,4 +487,103 @@ public class NitriteIndexElementRepository<D> extends NitriteElementRepository<L
         return this;
     }
 
+    @Override
+    public NitriteIndexElementRepository<D> usingGroupCommit(long window, TimeUnit timeUnit, int maxBatchSize)
+    {
+        super.usingGroupCommit(window, timeUnit, maxBatchSize);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withBulkChunkSize(int bulkChunkSize)
+    {
+        super.withBulkChunkSize(bulkChunkSize);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withReadChunkSize(int readChunkSize)
+    {
+        super.withReadChunkSize(readChunkSize);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> usingParallelReads()
+    {
+        super.usingParallelReads();
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> usingParallelReads(ForkJoinPool readPool)
+    {
+        super.usingParallelReads(readPool);
+        return this;
+    }
+
+    @Override
+    public synchronized NitriteIndexElementRepository<D> usingBackgroundCompaction(long idleTime, TimeUnit timeUnit, int targetFillRate,
+                                                                                   int maxRewriteBytesPerRun)
+    {
+        super.usingBackgroundCompaction(idleTime, timeUnit, targetFillRate, maxRewriteBytesPerRun);
+        return this;
+    }
+
+    @Override
+    public synchronized NitriteIndexElementRepository<D> usingWriteBehind(long maxDelay, TimeUnit timeUnit, int maxPendingWrites)
+    {
+        super.usingWriteBehind(maxDelay, timeUnit, maxPendingWrites);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> usingValueLog(int thresholdInBytes)
+    {
+        super.usingValueLog(thresholdInBytes);
+        return this;
+    }
+
+    @Override
+    public synchronized NitriteIndexElementRepository<D> usingValueLog(File directory, int thresholdInBytes, int segmentSize)
+    {
+        super.usingValueLog(directory, thresholdInBytes, segmentSize);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withElementCodec(ElementCodec<D> elementCodec)
+    {
+        super.withElementCodec(elementCodec);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withIndex(String fieldPath, IndexType indexType)
+    {
+        super.withIndex(fieldPath, indexType);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withMetrics(RepositoryMetrics metrics)
+    {
+        super.withMetrics(metrics);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withElementCache(long maximumSize)
+    {
+        super.withElementCache(maximumSize);
+        return this;
+    }
+
+    @Override
+    public NitriteIndexElementRepository<D> withElementCache(long maximumSize, long maximumWeight, ToLongFunction<D> weigher)
+    {
+        super.withElementCache(maximumSize, maximumWeight, weigher);
+        return this;
+    }
+
 }
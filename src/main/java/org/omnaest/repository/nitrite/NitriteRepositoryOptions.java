@@ -0,0 +1,128 @@
+package org.omnaest.repository.nitrite;
+
+/**
+ * Storage engine options of a {@link NitriteElementRepository}. The default options open a compressed, writable file store with the default
+ * cache size of the underlying MVStore.
+ * 
+ * @author omnaest
+ */
+public class NitriteRepositoryOptions
+{
+    private boolean compressed           = true;
+    private boolean autoCompact          = true;
+    private boolean readOnly             = false;
+    private boolean inMemory             = false;
+    private int     autoCommitBufferSize = 0;
+    private int     cacheSizeInMB        = 0;
+
+    /**
+     * Enables or disables the compression of the store, default is enabled. Compression saves I/O for large elements but costs CPU for small
+     * and frequently accessed ones.
+     * 
+     * @param compressed
+     * @return
+     */
+    public NitriteRepositoryOptions withCompression(boolean compressed)
+    {
+        this.compressed = compressed;
+        return this;
+    }
+
+    /**
+     * Enables or disables the compaction of the store file on close, default is enabled
+     * 
+     * @param autoCompact
+     * @return
+     */
+    public NitriteRepositoryOptions withAutoCompact(boolean autoCompact)
+    {
+        this.autoCompact = autoCompact;
+        return this;
+    }
+
+    /**
+     * Opens the store read only, e.g. for reporting replicas. All write operations of the repository fail with an
+     * {@link IllegalStateException} and no commits are executed.
+     * 
+     * @return
+     */
+    public NitriteRepositoryOptions readOnly()
+    {
+        this.readOnly = true;
+        return this;
+    }
+
+    /**
+     * Keeps the whole store in memory and ignores the given file, e.g. for tests
+     * 
+     * @return
+     */
+    public NitriteRepositoryOptions inMemory()
+    {
+        this.inMemory = true;
+        return this;
+    }
+
+    /**
+     * Sets the size of the write buffer in kilobytes after which the underlying store writes the changes in the background
+     * 
+     * @param autoCommitBufferSize
+     * @return
+     */
+    public NitriteRepositoryOptions withAutoCommitBufferSize(int autoCommitBufferSize)
+    {
+        this.autoCommitBufferSize = autoCommitBufferSize;
+        return this;
+    }
+
+    /**
+     * Sets the size of the page cache of the underlying MVStore in megabytes
+     * 
+     * @param cacheSizeInMB
+     * @return
+     */
+    public NitriteRepositoryOptions withCacheSize(int cacheSizeInMB)
+    {
+        this.cacheSizeInMB = cacheSizeInMB;
+        return this;
+    }
+
+    public boolean isCompressed()
+    {
+        return this.compressed;
+    }
+
+    public boolean isAutoCompact()
+    {
+        return this.autoCompact;
+    }
+
+    public boolean isReadOnly()
+    {
+        return this.readOnly;
+    }
+
+    public boolean isInMemory()
+    {
+        return this.inMemory;
+    }
+
+    public int getAutoCommitBufferSize()
+    {
+        return this.autoCommitBufferSize;
+    }
+
+    public int getCacheSizeInMB()
+    {
+        return this.cacheSizeInMB;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NitriteRepositoryOptions [compressed=" + this.compressed + ", autoCompact=" + this.autoCompact + ", readOnly=" + this.readOnly
+                + ", inMemory=" + this.inMemory + ", autoCommitBufferSize=" + this.autoCommitBufferSize + ", cacheSizeInMB=" + this.cacheSizeInMB
+                + "]";
+    }
+
+}
@@ -0,0 +1,233 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.dizitart.no2.Document;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.omnaest.utils.StreamUtils;
+import org.omnaest.utils.optional.NullOptional;
+
+/**
+ * Read only view of a {@link NitriteElementRepository} which is pinned to the version of the store at the time it has been opened, see
+ * {@link NitriteElementRepository#openSnapshot()}. Write operations on the repository after that point in time are not visible. The
+ * snapshot must be closed to release the pinned version.
+ * 
+ * @author omnaest
+ * @param <I>
+ * @param <D>
+ */
+public class NitriteRepositorySnapshot<I extends Comparable<I>, D> implements AutoCloseable
+{
+    static final String EXPORT_FORMAT         = "NitriteRepositoryExport";
+    static final int    EXPORT_FORMAT_VERSION = 1;
+
+    private static final String ID_FIELD              = "id";
+    private static final String ELEMENT_FIELD         = "element";
+    private static final int    EXPORT_RESET_INTERVAL = 1000;
+
+    private MVMap<Object, Object>               documents;
+    private MVMap<Object, Object>               idIndex;
+    private Function<Document, NullOptional<D>> elementMapper;
+    private UnaryOperator<Object>               exportValueMapper;
+    private Runnable                            releaseVersion;
+    private Map<Object, Object>                 internalIdsById;
+    private boolean                             closed = false;
+
+    NitriteRepositorySnapshot(MVMap<Object, Object> documents, MVMap<Object, Object> idIndex, Function<Document, NullOptional<D>> elementMapper,
+                              UnaryOperator<Object> exportValueMapper, Runnable releaseVersion)
+    {
+        super();
+        this.documents = documents;
+        this.idIndex = idIndex;
+        this.elementMapper = elementMapper;
+        this.exportValueMapper = exportValueMapper;
+        this.releaseVersion = releaseVersion;
+    }
+
+    public NullOptional<D> get(I id)
+    {
+        Document document = this.getDocument(id);
+        return document != null ? this.elementMapper.apply(document) : NullOptional.empty();
+    }
+
+    private Document getDocument(I id)
+    {
+        Object internalIds = this.idIndex.get(id);
+        if (internalIds == null)
+        {
+            return null;
+        }
+
+        if (internalIds instanceof Collection)
+        {
+            for (Object internalId : (Collection<?>) internalIds)
+            {
+                Document document = (Document) this.documents.get(internalId);
+                if (document != null && id.equals(document.get(ID_FIELD)))
+                {
+                    return document;
+                }
+            }
+        }
+
+        // Nitrite modifies the sets of internal ids of the index in place, so they can differ from the pinned version
+        Object internalId = this.getInternalIdsById()
+                                .get(id);
+        return internalId != null ? (Document) this.documents.get(internalId) : null;
+    }
+
+    private synchronized Map<Object, Object> getInternalIdsById()
+    {
+        if (this.internalIdsById == null)
+        {
+            Map<Object, Object> internalIdsById = new HashMap<>();
+            Cursor<Object, Object> cursor = this.documents.cursor(null);
+            while (cursor.hasNext())
+            {
+                Object internalId = cursor.next();
+                internalIdsById.put(((Document) cursor.getValue()).get(ID_FIELD), internalId);
+            }
+            this.internalIdsById = internalIdsById;
+        }
+        return this.internalIdsById;
+    }
+
+    public Map<I, D> getAll(Collection<I> ids)
+    {
+        Map<I, D> retmap = new HashMap<>();
+        for (I id : ids)
+        {
+            NullOptional<D> element = this.get(id);
+            if (element.isPresent())
+            {
+                retmap.put(id, element.get());
+            }
+        }
+        return retmap;
+    }
+
+    /**
+     * Returns all ids in ascending order
+     * 
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<I> ids()
+    {
+        return StreamUtils.fromIterator(this.idIndex.keyIterator(null))
+                          .map(id -> (I) id);
+    }
+
+    public long size()
+    {
+        return this.documents.sizeAsLong();
+    }
+
+    /**
+     * Returns all ids and elements in the internal order of the store
+     * 
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<Entry<I, D>> entries()
+    {
+        return this.rawDocuments()
+                   .map(document -> this.elementMapper.apply(document)
+                                                      .mapToNullable(element -> (Entry<I, D>) new SimpleEntry<>((I) document.get(ID_FIELD), element)))
+                   .filter(NullOptional::isPresent)
+                   .map(NullOptional::get);
+    }
+
+    private Stream<Document> rawDocuments()
+    {
+        Cursor<Object, Object> cursor = this.documents.cursor(null);
+        return StreamUtils.fromIterator(new Iterator<Document>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return cursor.hasNext();
+            }
+
+            @Override
+            public Document next()
+            {
+                cursor.next();
+                return (Document) cursor.getValue();
+            }
+        });
+    }
+
+    /**
+     * Writes all raw elements of this snapshot into the given file in a compressed binary format without deserializing them, except for
+     * elements within the value log of the repository. The file can be imported by {@link NitriteElementRepository#importFrom(File)}.
+     * 
+     * @param file
+     * @return the number of exported elements
+     */
+    public long exportTo(File file)
+    {
+        try
+        {
+            FileUtils.forceMkdirParent(file);
+            try (ObjectOutputStream outputStream = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)))))
+            {
+                outputStream.writeUTF(EXPORT_FORMAT);
+                outputStream.writeInt(EXPORT_FORMAT_VERSION);
+
+                long count = 0;
+                Iterator<Document> documents = this.rawDocuments()
+                                                   .iterator();
+                while (documents.hasNext())
+                {
+                    Document document = documents.next();
+                    outputStream.writeBoolean(true);
+                    outputStream.writeObject(document.get(ID_FIELD));
+                    outputStream.writeObject(this.exportValueMapper.apply(document.get(ELEMENT_FIELD)));
+
+                    // the stream keeps references to all written objects until it is reset
+                    if (++count % EXPORT_RESET_INTERVAL == 0)
+                    {
+                        outputStream.reset();
+                    }
+                }
+                outputStream.writeBoolean(false);
+                return count;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to export the snapshot to " + file, e);
+        }
+    }
+
+    /**
+     * Releases the pinned version of the store
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (!this.closed)
+        {
+            this.closed = true;
+            this.releaseVersion.run();
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.omnaest.repository.nitrite;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import org.omnaest.utils.CacheUtils;
 import org.omnaest.utils.cache.Cache;
@@ -20,10 +21,21 @@ public class NitriteRepositoryUtils
 
     public static <I extends Comparable<I>, D> NitriteElementRepository<I, D> newElementRepository(Class<D> type, File file, SupplierConsumer<I> idSupplier)
     {
-        return new NitriteElementRepository<>(type, file, () -> idSupplier);
+        return newElementRepository(type, file, idSupplier, new NitriteRepositoryOptions());
+    }
+
+    public static <I extends Comparable<I>, D> NitriteElementRepository<I, D> newElementRepository(Class<D> type, File file, SupplierConsumer<I> idSupplier,
+                                                                                                    NitriteRepositoryOptions options)
+    {
+        return new NitriteElementRepository<>(type, file, () -> idSupplier, options);
     }
 
     public static <I extends Comparable<I>, D> MapElementRepository<I, D> newMapElementRepository(Class<D> type, File file)
+    {
+        return newMapElementRepository(type, file, new NitriteRepositoryOptions());
+    }
+
+    public static <I extends Comparable<I>, D> MapElementRepository<I, D> newMapElementRepository(Class<D> type, File file, NitriteRepositoryOptions options)
     {
         return newElementRepository(type, file, new SupplierConsumer<I>()
         {
@@ -38,7 +50,7 @@ public class NitriteRepositoryUtils
             {
                 // do nothing
             }
-        });
+        }, options);
     }
 
     public static <D> NitriteIndexElementRepository<D> newIndexElementRepository(Class<D> type, File file)
@@ -46,13 +58,38 @@ public class NitriteRepositoryUtils
         return new NitriteIndexElementRepository<>(type, file);
     }
 
+    public static <D> NitriteIndexElementRepository<D> newIndexElementRepository(Class<D> type, File file, NitriteRepositoryOptions options)
+    {
+        return new NitriteIndexElementRepository<>(type, file, options);
+    }
+
+    /**
+     * @see ShardedNitriteIndexElementRepository
+     * @param type
+     * @param directory
+     * @param numberOfShards
+     * @return
+     */
+    public static <D> ShardedNitriteIndexElementRepository<D> newShardedIndexElementRepository(Class<D> type, File directory, int numberOfShards)
+    {
+        return new ShardedNitriteIndexElementRepository<>(type, directory, numberOfShards);
+    }
+
     public static Cache newLocalCache(String name)
     {
         return newCache(new File(CacheUtils.DEFAULT_CACHE_FOLDER, name + ".dat"));
     }
 
+    /**
+     * Returns a {@link NitriteCache} with a background compaction, which runs after one minute without write operations if less than half of
+     * the store file is in use
+     * 
+     * @see NitriteCache#withBackgroundCompaction(long, TimeUnit, int, int)
+     * @param file
+     * @return
+     */
     public static Cache newCache(File file)
     {
-        return new NitriteCache(file);
+        return new NitriteCache(file).withBackgroundCompaction(1, TimeUnit.MINUTES, 50, 4 * 1024 * 1024);
     }
 }
@@ -0,0 +1,92 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.omnaest.utils.optional.NullOptional;
+
+/**
+ * Unit of work of a {@link NitriteElementRepository}, see {@link NitriteElementRepository#inTransaction(java.util.function.Consumer)}. All
+ * write operations are buffered and applied together with a single commit after the transaction has completed. Reads see the buffered write
+ * operations of the transaction itself.
+ * 
+ * @author omnaest
+ * @param <I>
+ * @param <D>
+ */
+public class NitriteTransaction<I extends Comparable<I>, D>
+{
+    private Function<I, NullOptional<D>> reader;
+    private Supplier<I>                  idSupplier;
+    private Map<I, NullOptional<D>>      writes = new LinkedHashMap<>();
+
+    NitriteTransaction(Function<I, NullOptional<D>> reader, Supplier<I> idSupplier)
+    {
+        super();
+        this.reader = reader;
+        this.idSupplier = idSupplier;
+    }
+
+    public NitriteTransaction<I, D> put(I id, D element)
+    {
+        this.writes.put(id, NullOptional.of(element));
+        return this;
+    }
+
+    public NitriteTransaction<I, D> putAll(Map<I, D> elements)
+    {
+        elements.forEach(this::put);
+        return this;
+    }
+
+    /**
+     * Adds the given element with a new id. The id is allocated immediately and is not released if the transaction is rolled back.
+     * 
+     * @param element
+     * @return
+     */
+    public I add(D element)
+    {
+        I id = this.idSupplier.get();
+        this.put(id, element);
+        return id;
+    }
+
+    public NitriteTransaction<I, D> remove(I id)
+    {
+        this.writes.put(id, NullOptional.empty());
+        return this;
+    }
+
+    /**
+     * Returns the element of the given id including the buffered write operations of this transaction
+     * 
+     * @param id
+     * @return
+     */
+    public NullOptional<D> get(I id)
+    {
+        NullOptional<D> element = this.writes.get(id);
+        return element != null ? element : this.reader.apply(id);
+    }
+
+    /**
+     * Returns the buffered write operations by id, where an empty {@link NullOptional} is a removal
+     * 
+     * @return
+     */
+    Map<I, NullOptional<D>> getWrites()
+    {
+        return Collections.unmodifiableMap(this.writes);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "NitriteTransaction [" + this.writes.size() + " write operations]";
+    }
+
+}
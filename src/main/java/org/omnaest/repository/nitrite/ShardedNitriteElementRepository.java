@@ -0,0 +1,618 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.io.FileUtils;
+import org.dizitart.no2.SortOrder;
+import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.utils.ExceptionUtils;
+import org.omnaest.utils.element.cached.CachedElement;
+import org.omnaest.utils.optional.NullOptional;
+import org.omnaest.utils.repository.ElementRepository;
+import org.omnaest.utils.supplier.SupplierConsumer;
+
+/**
+ * {@link ElementRepository} which partitions the ids by their hash code across multiple {@link NitriteElementRepository} shards, each with
+ * its own store file and commits, so that writes to different shards do not contend for the same store. Bulk operations are executed on all
+ * affected shards in parallel.<br>
+ * <br>
+ * The shard files are named "shard-&lt;index&gt;-of-&lt;numberOfShards&gt;.db" within the given directory. The hash codes of the ids must
+ * be stable across JVM runs, which is the case e.g. for {@link Long} and {@link String} ids. To change the number of shards use
+ * {@link #reshard(Class, File, int, int)}.
+ * 
+ * @author omnaest
+ * @param <I>
+ * @param <D>
+ */
+public class ShardedNitriteElementRepository<I extends Comparable<I>, D> implements ElementRepository<I, D>
+{
+    private static final Pattern SHARD_FILE_NAME = Pattern.compile("shard-(\\d+)-of-(\\d+)\\.db");
+
+    private File                                 directory;
+    private List<NitriteElementRepository<I, D>> shards;
+    private ExecutorService                      executor;
+    protected Supplier<SupplierConsumer<I>>      idSupplier;
+    private int                                  bulkChunkSize = 10000;
+
+    public ShardedNitriteElementRepository(Class<D> type, File directory, int numberOfShards, Supplier<SupplierConsumer<I>> idSupplier)
+    {
+        this(type, directory, numberOfShards, idSupplier, new NitriteRepositoryOptions());
+    }
+
+    /**
+     * @param type
+     * @param directory
+     * @param numberOfShards
+     * @param idSupplier
+     *            provides the ids for {@link #add(Object)}, can be null
+     * @param options
+     *            {@link NitriteRepositoryOptions} of every shard
+     */
+    public ShardedNitriteElementRepository(Class<D> type, File directory, int numberOfShards, Supplier<SupplierConsumer<I>> idSupplier,
+                                           NitriteRepositoryOptions options)
+    {
+        super();
+        if (numberOfShards <= 0)
+        {
+            throw new IllegalArgumentException("Number of shards must be positive: " + numberOfShards);
+        }
+        assertShardFilesMatch(directory, numberOfShards);
+
+        this.directory = directory;
+        this.idSupplier = idSupplier != null ? CachedElement.of(idSupplier) : () ->
+        {
+            throw new UnsupportedOperationException("No idSupplier has been specified");
+        };
+        this.shards = IntStream.range(0, numberOfShards)
+                               .mapToObj(index -> new NitriteElementRepository<I, D>(type, getShardFile(directory, index, numberOfShards),
+                                                                                     () -> new ShardIdSupplier<I>(), options))
+                               .collect(Collectors.toList());
+
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(numberOfShards, runnable ->
+        {
+            Thread thread = new Thread(runnable, "NitriteShard-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The ids of the shards are always given by the {@link ShardedNitriteElementRepository}
+     * 
+     * @author omnaest
+     * @param <I>
+     */
+    private static class ShardIdSupplier<I> implements SupplierConsumer<I>
+    {
+        @Override
+        public I get()
+        {
+            throw new UnsupportedOperationException("Shards do not generate ids");
+        }
+
+        @Override
+        public void accept(I id)
+        {
+            // do nothing
+        }
+    }
+
+    private static File getShardFile(File directory, int index, int numberOfShards)
+    {
+        return new File(directory, "shard-" + index + "-of-" + numberOfShards + ".db");
+    }
+
+    private static void assertShardFilesMatch(File directory, int numberOfShards)
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                Matcher matcher = SHARD_FILE_NAME.matcher(file.getName());
+                if (matcher.matches() && Integer.parseInt(matcher.group(2)) != numberOfShards)
+                {
+                    throw new IllegalStateException("The directory " + directory + " contains shards of a different number of shards: " + file.getName()
+                            + ", use reshard(...) to change the number of shards");
+                }
+            }
+        }
+    }
+
+    private static void assertNoShardSideFiles(File directory)
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                if (file.getName()
+                        .startsWith("shard-")
+                        && !SHARD_FILE_NAME.matcher(file.getName())
+                                           .matches())
+                {
+                    throw new IllegalStateException("The directory " + directory + " contains further files of the shards which can not be resharded: "
+                            + file.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the {@link AutoCommitMode} of all shards
+     * 
+     * @param autoCommitMode
+     * @return
+     */
+    public ShardedNitriteElementRepository<I, D> usingAutoCommit(AutoCommitMode autoCommitMode)
+    {
+        this.shards.forEach(shard -> shard.usingAutoCommit(autoCommitMode));
+        return this;
+    }
+
+    /**
+     * Enables an element cache of the given size for each shard
+     * 
+     * @see NitriteElementRepository#withElementCache(long)
+     * @param maximumSizePerShard
+     * @return
+     */
+    public ShardedNitriteElementRepository<I, D> withElementCache(long maximumSizePerShard)
+    {
+        this.shards.forEach(shard -> shard.withElementCache(maximumSizePerShard));
+        return this;
+    }
+
+    /**
+     * Enables a write behind buffer for each shard
+     * 
+     * @see NitriteElementRepository#usingWriteBehind(long, TimeUnit, int)
+     * @param maxDelay
+     * @param timeUnit
+     * @param maxPendingWritesPerShard
+     * @return
+     */
+    public ShardedNitriteElementRepository<I, D> usingWriteBehind(long maxDelay, TimeUnit timeUnit, int maxPendingWritesPerShard)
+    {
+        this.shards.forEach(shard -> shard.usingWriteBehind(maxDelay, timeUnit, maxPendingWritesPerShard));
+        return this;
+    }
+
+    /**
+     * Sets the {@link ElementCodec} of all shards
+     * 
+     * @see NitriteElementRepository#withElementCodec(ElementCodec)
+     * @param elementCodec
+     * @return
+     */
+    public ShardedNitriteElementRepository<I, D> withElementCodec(ElementCodec<D> elementCodec)
+    {
+        this.shards.forEach(shard -> shard.withElementCodec(elementCodec));
+        return this;
+    }
+
+    /**
+     * Sets the number of elements of {@link #addAll(Stream)} which are distributed to the shards at once
+     * 
+     * @param bulkChunkSize
+     * @return
+     */
+    public ShardedNitriteElementRepository<I, D> withBulkChunkSize(int bulkChunkSize)
+    {
+        if (bulkChunkSize <= 0)
+        {
+            throw new IllegalArgumentException("Bulk chunk size must be positive: " + bulkChunkSize);
+        }
+        this.bulkChunkSize = bulkChunkSize;
+        this.shards.forEach(shard -> shard.withBulkChunkSize(bulkChunkSize));
+        return this;
+    }
+
+    public int getNumberOfShards()
+    {
+        return this.shards.size();
+    }
+
+    private NitriteElementRepository<I, D> getShard(I id)
+    {
+        return this.shards.get(Math.floorMod(id.hashCode(), this.shards.size()));
+    }
+
+    private Map<NitriteElementRepository<I, D>, List<I>> groupByShard(Collection<I> ids)
+    {
+        return ids.stream()
+                  .collect(Collectors.groupingBy(this::getShard));
+    }
+
+    private <R> List<R> executeOnShards(Collection<NitriteElementRepository<I, D>> shards, Function<NitriteElementRepository<I, D>, R> operation)
+    {
+        List<CompletableFuture<R>> results = shards.stream()
+                                                   .map(shard -> CompletableFuture.supplyAsync(() -> operation.apply(shard), this.executor))
+                                                   .collect(Collectors.toList());
+        return results.stream()
+                      .map(CompletableFuture::join)
+                      .collect(Collectors.toList());
+    }
+
+    @Override
+    public I add(D element)
+    {
+        I id = this.idSupplier.get()
+                              .get();
+        this.getShard(id)
+            .put(id, element);
+        return id;
+    }
+
+    /**
+     * Distributes the given elements in chunks of the size defined by {@link #withBulkChunkSize(int)} to all shards in parallel
+     */
+    @Override
+    public Stream<I> addAll(Stream<D> elements)
+    {
+        List<I> ids = new ArrayList<>();
+        this.addAll(elements, ids::add);
+        return ids.stream();
+    }
+
+    /**
+     * Similar to {@link #addAll(Stream)} but passes the generated ids to the given {@link Consumer} instead of collecting them. The elements
+     * are pulled lazily from the given {@link Stream} and distributed in chunks of the size defined by {@link #withBulkChunkSize(int)}, so the
+     * memory consumption does not depend on the number of elements.
+     * 
+     * @param elements
+     * @param idConsumer
+     */
+    public void addAll(Stream<D> elements, Consumer<I> idConsumer)
+    {
+        BatchUtils.chunked(elements, this.bulkChunkSize)
+                  .forEach(chunk ->
+                  {
+                      SupplierConsumer<I> chunkIdSupplier = this.idSupplier.get();
+                      Map<I, D> chunkElements = new LinkedHashMap<>();
+                      for (D element : chunk)
+                      {
+                          chunkElements.put(chunkIdSupplier.get(), element);
+                      }
+                      this.putAllWithoutIdNotification(chunkElements);
+                      chunkElements.keySet()
+                                   .forEach(idConsumer);
+                  });
+    }
+
+    @Override
+    public void put(I id, D element)
+    {
+        this.idSupplier.get()
+                       .accept(id);
+        this.getShard(id)
+            .put(id, element);
+    }
+
+    @Override
+    public void putAll(Map<I, D> map)
+    {
+        SupplierConsumer<I> idSupplier = this.idSupplier.get();
+        map.keySet()
+           .forEach(idSupplier::accept);
+        this.putAllWithoutIdNotification(map);
+    }
+
+    private void putAllWithoutIdNotification(Map<I, D> map)
+    {
+        Map<NitriteElementRepository<I, D>, Map<I, D>> elementsByShard = map.entrySet()
+                                                                            .stream()
+                                                                            .collect(Collectors.groupingBy(entry -> this.getShard(entry.getKey()),
+                                                                                                           Collectors.toMap(Entry::getKey,
+                                                                                                                            Entry::getValue)));
+        this.executeOnShards(elementsByShard.keySet(), shard ->
+        {
+            shard.putAll(elementsByShard.get(shard));
+            return null;
+        });
+    }
+
+    @Override
+    public void remove(I id)
+    {
+        this.getShard(id)
+            .remove(id);
+    }
+
+    @Override
+    public NullOptional<D> get(I id)
+    {
+        return this.getShard(id)
+                   .get(id);
+    }
+
+    @Override
+    public Map<I, D> getAll(Collection<I> ids)
+    {
+        Map<NitriteElementRepository<I, D>, List<I>> idsByShard = this.groupByShard(ids);
+        Map<I, D> retmap = new HashMap<>();
+        this.executeOnShards(idsByShard.keySet(), shard -> shard.getAll(idsByShard.get(shard)))
+            .forEach(retmap::putAll);
+        return retmap;
+    }
+
+    @Override
+    public long size()
+    {
+        return this.executeOnShards(this.shards, NitriteElementRepository::size)
+                   .stream()
+                   .mapToLong(Long::longValue)
+                   .sum();
+    }
+
+    @Override
+    public ShardedNitriteElementRepository<I, D> clear()
+    {
+        this.executeOnShards(this.shards, NitriteElementRepository::clear);
+        return this;
+    }
+
+    /**
+     * Returns the ids of all shards one shard after another
+     */
+    @Override
+    public Stream<I> ids(IdOrder idOrder)
+    {
+        return this.shards.stream()
+                          .flatMap(shard -> shard.ids(idOrder));
+    }
+
+    /**
+     * Returns the ids of all shards in the given {@link SortOrder} by merging the sorted ids of each shard
+     * 
+     * @param sortOrder
+     * @return
+     */
+    public Stream<I> ids(SortOrder sortOrder)
+    {
+        Comparator<I> comparator = SortOrder.Ascending.equals(sortOrder) ? Comparator.naturalOrder() : Comparator.reverseOrder();
+        List<Stream<I>> shardIds = this.shards.stream()
+                                              .map(shard -> shard.ids(sortOrder))
+                                              .collect(Collectors.toList());
+        Iterator<I> mergedIds = new MergingIterator<>(shardIds.stream()
+                                                              .map(Stream::iterator)
+                                                              .collect(Collectors.toList()),
+                                                      comparator);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(mergedIds, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(() -> shardIds.forEach(Stream::close));
+    }
+
+    /**
+     * Merges multiple sorted {@link Iterator}s into one sorted {@link Iterator}
+     * 
+     * @author omnaest
+     * @param <E>
+     */
+    private static class MergingIterator<E> implements Iterator<E>
+    {
+        private PriorityQueue<HeadAndIterator<E>> iterators;
+
+        private static class HeadAndIterator<E>
+        {
+            private E           head;
+            private Iterator<E> iterator;
+
+            public HeadAndIterator(E head, Iterator<E> iterator)
+            {
+                super();
+                this.head = head;
+                this.iterator = iterator;
+            }
+
+        }
+
+        public MergingIterator(List<Iterator<E>> iterators, Comparator<E> comparator)
+        {
+            super();
+            this.iterators = new PriorityQueue<>(Math.max(1, iterators.size()), (o1, o2) -> comparator.compare(o1.head, o2.head));
+            iterators.stream()
+                     .filter(Iterator::hasNext)
+                     .forEach(iterator -> this.iterators.add(new HeadAndIterator<>(iterator.next(), iterator)));
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return !this.iterators.isEmpty();
+        }
+
+        @Override
+        public E next()
+        {
+            HeadAndIterator<E> headAndIterator = this.iterators.poll();
+            if (headAndIterator == null)
+            {
+                throw new NoSuchElementException();
+            }
+
+            E retval = headAndIterator.head;
+            if (headAndIterator.iterator.hasNext())
+            {
+                headAndIterator.head = headAndIterator.iterator.next();
+                this.iterators.add(headAndIterator);
+            }
+            return retval;
+        }
+    }
+
+    /**
+     * Returns the highest id over all shards
+     * 
+     * @return
+     */
+    protected Optional<I> getMaxId()
+    {
+        return this.executeOnShards(this.shards, NitriteElementRepository::getMaxId)
+                   .stream()
+                   .filter(Optional::isPresent)
+                   .map(Optional::get)
+                   .max(Comparator.naturalOrder());
+    }
+
+    @Override
+    public void close()
+    {
+        this.executeOnShards(this.shards, shard ->
+        {
+            shard.close();
+            return null;
+        });
+        this.executor.shutdown();
+        ExceptionUtils.executeSilentVoid(() -> this.executor.awaitTermination(10, TimeUnit.MINUTES));
+    }
+
+    /**
+     * Changes the number of shards of the repository within the given directory by copying all elements in chunks into new shard files. The
+     * repository must not be opened during the resharding. The old shard files are moved into a backup directory before the new shard files
+     * are moved in and are deleted only after all new shard files are in place. If the replacement fails, the old shard files are restored.
+     * 
+     * @param type
+     * @param directory
+     * @param numberOfShards
+     * @param newNumberOfShards
+     * @see #reshard(Class, File, int, int, NitriteRepositoryOptions)
+     */
+    public static <I extends Comparable<I>, D> void reshard(Class<D> type, File directory, int numberOfShards, int newNumberOfShards)
+    {
+        reshard(type, directory, numberOfShards, newNumberOfShards, new NitriteRepositoryOptions());
+    }
+
+    /**
+     * Similar to {@link #reshard(Class, File, int, int)} but opens the old and the new shards with the given {@link NitriteRepositoryOptions},
+     * which have to be the same as the ones the repository is used with, e.g. for the compression. Only the shard files are moved, so
+     * directories with further files of the shards, like value logs, are rejected.
+     * 
+     * @param type
+     * @param directory
+     * @param numberOfShards
+     * @param newNumberOfShards
+     * @param options
+     */
+    public static <I extends Comparable<I>, D> void reshard(Class<D> type, File directory, int numberOfShards, int newNumberOfShards,
+                                                            NitriteRepositoryOptions options)
+    {
+        if (options.isReadOnly() || options.isInMemory())
+        {
+            throw new IllegalArgumentException("Resharding requires writable file based shards: " + options);
+        }
+        if (numberOfShards == newNumberOfShards)
+        {
+            return;
+        }
+        assertNoShardSideFiles(directory);
+
+        File targetDirectory = new File(directory, "resharding-" + newNumberOfShards);
+        ExceptionUtils.executeSilentVoid(() -> FileUtils.deleteDirectory(targetDirectory));
+
+        try (ShardedNitriteElementRepository<I, D> source = new ShardedNitriteElementRepository<>(type, directory, numberOfShards, null, options);
+                ShardedNitriteElementRepository<I, D> target = new ShardedNitriteElementRepository<>(type, targetDirectory, newNumberOfShards,
+                                                                                                      null, options))
+        {
+            target.usingAutoCommit(AutoCommitMode.AUTOCOMMIT_DISABLED);
+            for (NitriteElementRepository<I, D> shard : source.shards)
+            {
+                try (Stream<I> ids = shard.ids(SortOrder.Ascending))
+                {
+                    BatchUtils.chunked(ids, source.bulkChunkSize)
+                              .forEach(chunk -> target.putAllWithoutIdNotification(shard.getAll(chunk)));
+                }
+            }
+        }
+
+        File backupDirectory = new File(directory, "resharding-backup-" + numberOfShards);
+        try
+        {
+            FileUtils.deleteDirectory(backupDirectory);
+            for (int index = 0; index < numberOfShards; index++)
+            {
+                FileUtils.moveFileToDirectory(getShardFile(directory, index, numberOfShards), backupDirectory, true);
+            }
+            for (int index = 0; index < newNumberOfShards; index++)
+            {
+                FileUtils.moveFileToDirectory(getShardFile(targetDirectory, index, newNumberOfShards), directory, false);
+            }
+        }
+        catch (IOException e)
+        {
+            restoreShardFiles(directory, backupDirectory, numberOfShards, newNumberOfShards);
+            throw new IllegalStateException("Unable to replace the shard files within " + directory, e);
+        }
+
+        try
+        {
+            FileUtils.deleteDirectory(backupDirectory);
+            FileUtils.deleteDirectory(targetDirectory);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to delete the old shard files within " + backupDirectory, e);
+        }
+    }
+
+    /**
+     * Removes the new shard files which have already been moved into the given directory and moves the old shard files back from the backup
+     * directory
+     * 
+     * @param directory
+     * @param backupDirectory
+     * @param numberOfShards
+     * @param newNumberOfShards
+     */
+    private static void restoreShardFiles(File directory, File backupDirectory, int numberOfShards, int newNumberOfShards)
+    {
+        for (int index = 0; index < newNumberOfShards; index++)
+        {
+            FileUtils.deleteQuietly(getShardFile(directory, index, newNumberOfShards));
+        }
+        for (int index = 0; index < numberOfShards; index++)
+        {
+            File backupFile = getShardFile(backupDirectory, index, numberOfShards);
+            if (backupFile.exists())
+            {
+                ExceptionUtils.executeSilentVoid(() -> FileUtils.moveFileToDirectory(backupFile, directory, false));
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ShardedNitriteElementRepository [" + this.directory + ", " + this.shards.size() + " shards]";
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.utils.element.cached.CachedElement;
+import org.omnaest.utils.repository.IndexElementRepository;
+import org.omnaest.utils.supplier.SupplierConsumer;
+
+/**
+ * {@link ShardedNitriteElementRepository} with {@link Long} ids, which are generated in ascending order starting after the highest id of all
+ * shards
+ * 
+ * @see NitriteIndexElementRepository
+ * @author omnaest
+ * @param <D>
+ */
+public class ShardedNitriteIndexElementRepository<D> extends ShardedNitriteElementRepository<Long, D> implements IndexElementRepository<D>
+{
+    public ShardedNitriteIndexElementRepository(Class<D> type, File directory, int numberOfShards)
+    {
+        this(type, directory, numberOfShards, new NitriteRepositoryOptions());
+    }
+
+    public ShardedNitriteIndexElementRepository(Class<D> type, File directory, int numberOfShards, NitriteRepositoryOptions options)
+    {
+        super(type, directory, numberOfShards, null, options);
+        this.idSupplier = CachedElement.of(this::createIdSupplier);
+    }
+
+    private SupplierConsumer<Long> createIdSupplier()
+    {
+        AtomicLong highestId = new AtomicLong(this.getMaxId()
+                                                  .orElse(-1l));
+        return new SupplierConsumer<Long>()
+        {
+            @Override
+            public Long get()
+            {
+                return highestId.incrementAndGet();
+            }
+
+            @Override
+            public void accept(Long id)
+            {
+                highestId.accumulateAndGet(id, Math::max);
+            }
+        };
+    }
+
+    @Override
+    public ShardedNitriteIndexElementRepository<D> clear()
+    {
+        super.clear();
+        this.idSupplier = CachedElement.of(this::createIdSupplier);
+        return this;
+    }
+
+    @Override
+    public ShardedNitriteIndexElementRepository<D> usingAutoCommit(AutoCommitMode autoCommitMode)
+    {
+        super.usingAutoCommit(autoCommitMode);
+        return this;
+    }
+
+    @Override
+    public ShardedNitriteIndexElementRepository<D> withElementCache(long maximumSizePerShard)
+    {
+        super.withElementCache(maximumSizePerShard);
+        return this;
+    }
+
+    @Override
+    public ShardedNitriteIndexElementRepository<D> withBulkChunkSize(int bulkChunkSize)
+    {
+        super.withBulkChunkSize(bulkChunkSize);
+        return this;
+    }
+
+}
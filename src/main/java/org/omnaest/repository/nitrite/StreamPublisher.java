@@ -0,0 +1,179 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * {@link Publisher} which emits the elements of a lazily created {@link Stream} on the given {@link Executor}, respecting the demand of each
+ * {@link Subscriber}. Every {@link Subscriber} gets its own {@link Stream}.
+ * 
+ * @author omnaest
+ * @param <E>
+ */
+class StreamPublisher<E> implements Publisher<E>
+{
+    private Supplier<Stream<E>> streamSupplier;
+    private Executor            executor;
+
+    public StreamPublisher(Supplier<Stream<E>> streamSupplier, Executor executor)
+    {
+        super();
+        this.streamSupplier = streamSupplier;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super E> subscriber)
+    {
+        if (subscriber == null)
+        {
+            throw new NullPointerException("Subscriber must not be null");
+        }
+        subscriber.onSubscribe(new StreamSubscription<>(subscriber, this.streamSupplier, this.executor));
+    }
+
+    /**
+     * All signals to the {@link Subscriber} are emitted by a single drain loop at a time, which is triggered by {@link #request(long)} and
+     * {@link #cancel()}
+     * 
+     * @author omnaest
+     * @param <E>
+     */
+    private static class StreamSubscription<E> implements Subscription, Runnable
+    {
+        private Subscriber<? super E> subscriber;
+        private Supplier<Stream<E>>   streamSupplier;
+        private Executor              executor;
+        private AtomicLong            demand        = new AtomicLong();
+        private AtomicInteger         pendingDrains = new AtomicInteger();
+        private volatile boolean      cancelled     = false;
+        private volatile long         invalidDemand = 0;
+        private Stream<E>             stream;
+        private Iterator<E>           iterator;
+        private boolean               terminated    = false;
+
+        public StreamSubscription(Subscriber<? super E> subscriber, Supplier<Stream<E>> streamSupplier, Executor executor)
+        {
+            super();
+            this.subscriber = subscriber;
+            this.streamSupplier = streamSupplier;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0)
+            {
+                this.invalidDemand = n;
+            }
+            else
+            {
+                this.demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            this.scheduleDrain();
+        }
+
+        @Override
+        public void cancel()
+        {
+            this.cancelled = true;
+            this.scheduleDrain();
+        }
+
+        private void scheduleDrain()
+        {
+            if (this.pendingDrains.getAndIncrement() == 0)
+            {
+                try
+                {
+                    this.executor.execute(this);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    this.cancelled = true;
+                    this.subscriber.onError(e);
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            int drains = 1;
+            do
+            {
+                this.drain();
+                drains = this.pendingDrains.addAndGet(-drains);
+            } while (drains != 0);
+        }
+
+        private void drain()
+        {
+            if (this.terminated)
+            {
+                return;
+            }
+            else if (this.cancelled)
+            {
+                this.terminate();
+                return;
+            }
+            else if (this.invalidDemand != 0)
+            {
+                this.terminate();
+                this.subscriber.onError(new IllegalArgumentException("Requested number of elements must be positive: " + this.invalidDemand));
+                return;
+            }
+
+            try
+            {
+                if (this.iterator == null)
+                {
+                    this.stream = this.streamSupplier.get();
+                    this.iterator = this.stream.iterator();
+                }
+
+                while (this.demand.get() > 0 && !this.cancelled && this.iterator.hasNext())
+                {
+                    E element = this.iterator.next();
+                    this.demand.decrementAndGet();
+                    this.subscriber.onNext(element);
+                }
+
+                if (this.cancelled)
+                {
+                    this.terminate();
+                }
+                else if (!this.iterator.hasNext())
+                {
+                    this.terminate();
+                    this.subscriber.onComplete();
+                }
+            }
+            catch (Exception e)
+            {
+                this.terminate();
+                this.subscriber.onError(e);
+            }
+        }
+
+        private void terminate()
+        {
+            this.terminated = true;
+            if (this.stream != null)
+            {
+                this.stream.close();
+            }
+        }
+    }
+}
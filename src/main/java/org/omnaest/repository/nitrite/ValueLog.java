@@ -0,0 +1,374 @@
+package org.omnaest.repository.nitrite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Append only log of binary values within a directory of memory mapped segment files. Each record consists of its length followed by the
+ * bytes of the value. Values are only appended to the last segment, the older segments are sealed and are only read or removed as a whole,
+ * see {@link NitriteElementRepository#compactValueLog()}. Removed segments are only retired first, so that readers which have fetched a
+ * {@link Pointer} before the values have been rewritten can still read them, and their files are deleted by
+ * {@link #deleteRetiredSegments()}.<br>
+ * <br>
+ * Appended values are written into the mapped memory and are only guaranteed to be on disk after {@link #force()}, unless
+ * {@link #forceEachAppend()} has been called.
+ * 
+ * @author omnaest
+ */
+class ValueLog implements AutoCloseable
+{
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("([0-9]{8})\\.vlog");
+    private static final int     RECORD_HEADER_SIZE   = 4;
+
+    private File                           directory;
+    private int                            segmentSize;
+    private NavigableMap<Integer, Segment> segments        = new ConcurrentSkipListMap<>();
+    private Map<Integer, Segment>          retiredSegments = new ConcurrentHashMap<>();
+    private AtomicInteger                  reads           = new AtomicInteger();
+    private Segment                        activeSegment;
+    private boolean                        unforced        = false;
+    private boolean                        forceEachAppend = false;
+
+    /**
+     * Location of a value within the {@link ValueLog}
+     * 
+     * @author omnaest
+     */
+    static class Pointer
+    {
+        private int segment;
+        private int offset;
+        private int length;
+
+        public Pointer(int segment, int offset, int length)
+        {
+            super();
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getSegment()
+        {
+            return this.segment;
+        }
+
+        public int getOffset()
+        {
+            return this.offset;
+        }
+
+        public int getLength()
+        {
+            return this.length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Pointer [segment=" + this.segment + ", offset=" + this.offset + ", length=" + this.length + "]";
+        }
+
+    }
+
+    private static class Segment
+    {
+        private int              id;
+        private File             file;
+        private RandomAccessFile randomAccessFile;
+        private MappedByteBuffer buffer;
+        private int              position;
+
+        public Segment(int id, File file, int size) throws IOException
+        {
+            super();
+            this.id = id;
+            this.file = file;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            try
+            {
+                FileChannel channel = this.randomAccessFile.getChannel();
+                this.buffer = channel.map(MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            }
+            catch (IOException e)
+            {
+                this.close();
+                throw e;
+            }
+            this.position = this.findEnd();
+        }
+
+        /**
+         * Returns the position after the last record, the unused remainder of a segment file is filled with zeros
+         * 
+         * @return
+         */
+        private int findEnd()
+        {
+            int position = 0;
+            while (position + RECORD_HEADER_SIZE <= this.buffer.capacity())
+            {
+                int length = this.buffer.getInt(position);
+                if (length <= 0 || position + RECORD_HEADER_SIZE + length > this.buffer.capacity())
+                {
+                    break;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+            return position;
+        }
+
+        public boolean hasCapacityFor(int length)
+        {
+            return this.buffer.capacity() - this.position >= RECORD_HEADER_SIZE + length;
+        }
+
+        public Pointer append(byte[] value)
+        {
+            int offset = this.position + RECORD_HEADER_SIZE;
+            ByteBuffer buffer = this.buffer.duplicate();
+            buffer.position(offset);
+            buffer.put(value);
+            this.buffer.putInt(this.position, value.length);
+            this.position = offset + value.length;
+            return new Pointer(this.id, offset, value.length);
+        }
+
+        public ByteBuffer read(Pointer pointer)
+        {
+            ByteBuffer buffer = this.buffer.asReadOnlyBuffer();
+            buffer.position(pointer.getOffset());
+            buffer.limit(pointer.getOffset() + pointer.getLength());
+            return buffer.slice();
+        }
+
+        public void close()
+        {
+            try
+            {
+                this.randomAccessFile.close();
+            }
+            catch (IOException e)
+            {
+                // nothing to do
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Segment [" + this.file + "]";
+        }
+
+    }
+
+    public ValueLog(File directory, int segmentSize)
+    {
+        super();
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try
+        {
+            FileUtils.forceMkdir(directory);
+            File[] files = directory.listFiles();
+            for (File file : files != null ? files : new File[0])
+            {
+                Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getName());
+                if (matcher.matches())
+                {
+                    int id = Integer.parseInt(matcher.group(1));
+                    this.segments.put(id, new Segment(id, file, 0));
+                }
+            }
+            this.activeSegment = this.segments.isEmpty() ? this.createSegment(1, segmentSize)
+                    : this.segments.lastEntry()
+                                   .getValue();
+        }
+        catch (IOException e)
+        {
+            this.close();
+            throw new IllegalStateException("Unable to open the value log " + directory, e);
+        }
+    }
+
+    private Segment createSegment(int id, int size) throws IOException
+    {
+        Segment segment = new Segment(id, new File(this.directory, String.format("%08d.vlog", id)), size);
+        this.segments.put(id, segment);
+        return segment;
+    }
+
+    /**
+     * Appends the given value and returns its {@link Pointer}. Values larger than the segment size get a segment of their own.
+     * 
+     * @param value
+     * @return
+     */
+    public synchronized Pointer append(byte[] value)
+    {
+        if (value.length == 0)
+        {
+            throw new IllegalArgumentException("Empty values can not be appended to the value log");
+        }
+
+        try
+        {
+            if (!this.activeSegment.hasCapacityFor(value.length))
+            {
+                this.force();
+                this.activeSegment = this.createSegment(this.activeSegment.id + 1, Math.max(this.segmentSize, RECORD_HEADER_SIZE + value.length));
+            }
+            Pointer pointer = this.activeSegment.append(value);
+            this.unforced = true;
+            if (this.forceEachAppend)
+            {
+                this.force();
+            }
+            return pointer;
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to append to the value log " + this.directory, e);
+        }
+    }
+
+    /**
+     * Passes a read only {@link ByteBuffer} of the value at the given {@link Pointer}, which is backed by the mapped segment file without
+     * copying, to the given reader. The buffer must not be used after the reader has returned.
+     * 
+     * @param pointer
+     * @param reader
+     * @return
+     */
+    public <R> R read(Pointer pointer, Function<ByteBuffer, R> reader)
+    {
+        this.reads.incrementAndGet();
+        try
+        {
+            Segment segment = this.segments.get(pointer.getSegment());
+            if (segment == null)
+            {
+                segment = this.retiredSegments.get(pointer.getSegment());
+            }
+            if (segment == null)
+            {
+                throw new IllegalStateException("The segment of the value log has been removed: " + pointer);
+            }
+            return reader.apply(segment.read(pointer));
+        }
+        finally
+        {
+            this.reads.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes all appended values to disk
+     */
+    public synchronized void force()
+    {
+        if (this.unforced)
+        {
+            this.activeSegment.buffer.force();
+            this.unforced = false;
+        }
+    }
+
+    /**
+     * Writes each appended value to disk before {@link #append(byte[])} returns, which is required if the store referring to the values can
+     * be committed without calling {@link #force()} before
+     */
+    public synchronized void forceEachAppend()
+    {
+        this.forceEachAppend = true;
+        this.force();
+    }
+
+    /**
+     * Returns the number of used bytes of each sealed segment, which does not receive any further values
+     * 
+     * @return
+     */
+    public synchronized Map<Integer, Long> getSealedSegmentSizes()
+    {
+        return this.segments.headMap(this.activeSegment.id)
+                            .values()
+                            .stream()
+                            .collect(Collectors.toMap(segment -> segment.id, segment -> (long) segment.position));
+    }
+
+    /**
+     * Removes the given sealed segment from the segments receiving values or being compacted. The segment stays readable until
+     * {@link #deleteRetiredSegments()}.
+     * 
+     * @param id
+     */
+    public synchronized void retireSegment(int id)
+    {
+        if (id == this.activeSegment.id)
+        {
+            throw new IllegalArgumentException("The active segment of the value log can not be removed: " + id);
+        }
+
+        Segment segment = this.segments.remove(id);
+        if (segment != null)
+        {
+            this.retiredSegments.put(id, segment);
+        }
+    }
+
+    /**
+     * Deletes the files of all segments retired by {@link #retireSegment(int)}. If a read is in progress, nothing is deleted and the retired
+     * segments are deleted by a later call.
+     */
+    public synchronized void deleteRetiredSegments()
+    {
+        if (this.reads.get() > 0)
+        {
+            return;
+        }
+
+        this.retiredSegments.values()
+                            .forEach(segment ->
+                            {
+                                segment.close();
+                                FileUtils.deleteQuietly(segment.file);
+                            });
+        this.retiredSegments.clear();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (this.activeSegment != null)
+        {
+            this.activeSegment.buffer.force();
+        }
+        this.segments.values()
+                     .forEach(Segment::close);
+        this.deleteRetiredSegments();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ValueLog [" + this.directory + "]";
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.omnaest.repository.nitrite;
+
+import org.dizitart.no2.Document;
+import org.dizitart.no2.exceptions.ErrorCodes;
+import org.dizitart.no2.exceptions.ErrorMessage;
+import org.dizitart.no2.exceptions.ObjectMappingException;
+import org.omnaest.repository.nitrite.ValueLog.Pointer;
+
+/**
+ * {@link ElementCodec} which appends elements, whose serialized form has at least the threshold size, to a {@link ValueLog} and stores only
+ * a {@link Pointer} to them. Smaller elements are stored by the given {@link JacksonElementCodec}.
+ * 
+ * @see NitriteElementRepository#usingValueLog(int)
+ * @author omnaest
+ * @param <D>
+ */
+class ValueLogElementCodec<D> implements ElementCodec<D>
+{
+    private static final String SEGMENT_FIELD = "$valueLogSegment";
+    private static final String OFFSET_FIELD  = "$valueLogOffset";
+    private static final String LENGTH_FIELD  = "$valueLogLength";
+
+    private JacksonElementCodec<D> codec;
+    private ValueLog               valueLog;
+    private int                    threshold;
+
+    public ValueLogElementCodec(JacksonElementCodec<D> codec, ValueLog valueLog, int threshold)
+    {
+        super();
+        this.codec = codec;
+        this.valueLog = valueLog;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public Object encode(D element)
+    {
+        return this.codec.encode(element, this.threshold, bytes -> toDocument(this.valueLog.append(bytes)));
+    }
+
+    @Override
+    public D decode(Object value)
+    {
+        Pointer pointer = toPointer(value);
+        if (pointer == null)
+        {
+            return this.codec.decode(value);
+        }
+
+        try
+        {
+            return this.valueLog.read(pointer, this.codec::decodeFromBytes);
+        }
+        catch (IllegalStateException e)
+        {
+            throw new ObjectMappingException(ErrorMessage.errorMessage(e.getMessage(), ErrorCodes.OME_PARSE_JSON_FAILED));
+        }
+    }
+
+    /**
+     * Replaces a stored {@link Pointer} by the value stored by the {@link JacksonElementCodec}, so that it can be read without the
+     * {@link ValueLog}
+     * 
+     * @param value
+     * @return
+     */
+    public Object inline(Object value)
+    {
+        return toPointer(value) != null ? this.codec.encode(this.decode(value)) : value;
+    }
+
+    /**
+     * Returns the {@link Pointer} if the given stored value refers to the {@link ValueLog}, otherwise null
+     * 
+     * @param value
+     * @return
+     */
+    static Pointer toPointer(Object value)
+    {
+        if (value instanceof Document && ((Document) value).containsKey(SEGMENT_FIELD))
+        {
+            Document document = (Document) value;
+            return new Pointer(((Number) document.get(SEGMENT_FIELD)).intValue(), ((Number) document.get(OFFSET_FIELD)).intValue(),
+                               ((Number) document.get(LENGTH_FIELD)).intValue());
+        }
+        return null;
+    }
+
+    static Document toDocument(Pointer pointer)
+    {
+        return Document.createDocument(SEGMENT_FIELD, pointer.getSegment())
+                       .put(OFFSET_FIELD, pointer.getOffset())
+                       .put(LENGTH_FIELD, pointer.getLength());
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ValueLogElementCodec [" + this.codec + ", " + this.valueLog + "]";
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.omnaest.repository.nitrite;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.omnaest.utils.ExceptionUtils;
+import org.omnaest.utils.optional.NullOptional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffer of pending put and remove operations by their id, where a later write operation replaces a pending write operation of the same
+ * id. The pending write operations are flushed together as soon as their number reaches a maximum, and in the background after a maximum
+ * delay.<br>
+ * <br>
+ * A flush writes a copy of the pending write operations and removes afterwards only those which have not been replaced in the meantime, so
+ * reads which consult the buffer before the store never see an older element.
+ * 
+ * @author omnaest
+ * @param <I>
+ * @param <D>
+ */
+class WriteBehindBuffer<I, D>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private Map<I, NullOptional<D>>           pendingWrites = new ConcurrentHashMap<>();
+    private Consumer<Map<I, NullOptional<D>>> flusher;
+    private int                               maxPendingWrites;
+    private Lock                              flushLock     = new ReentrantLock();
+    private ScheduledExecutorService          scheduler;
+
+    public WriteBehindBuffer(Consumer<Map<I, NullOptional<D>>> flusher, long maxDelay, TimeUnit timeUnit, int maxPendingWrites)
+    {
+        super();
+        this.flusher = flusher;
+        this.maxPendingWrites = maxPendingWrites;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "NitriteWriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(() ->
+        {
+            try
+            {
+                this.flush();
+            }
+            catch (Exception e)
+            {
+                LOG.error("Write behind flush failed", e);
+            }
+        }, maxDelay, maxDelay, timeUnit);
+    }
+
+    public void write(I id, NullOptional<D> element)
+    {
+        this.pendingWrites.put(id, element);
+        if (this.pendingWrites.size() >= this.maxPendingWrites)
+        {
+            this.flush();
+        }
+    }
+
+    /**
+     * Returns the pending write operation of the given id, which is {@link NullOptional#empty()} for a pending removal, or null if there
+     * is no pending write operation
+     * 
+     * @param id
+     * @return
+     */
+    public NullOptional<D> get(I id)
+    {
+        return this.pendingWrites.get(id);
+    }
+
+    public void flush()
+    {
+        this.flushLock.lock();
+        try
+        {
+            if (this.pendingWrites.isEmpty())
+            {
+                return;
+            }
+
+            Map<I, NullOptional<D>> writes = new LinkedHashMap<>(this.pendingWrites);
+            this.flusher.accept(writes);
+            writes.forEach(this.pendingWrites::remove);
+        }
+        finally
+        {
+            this.flushLock.unlock();
+        }
+    }
+
+    /**
+     * Drops all pending write operations without writing them
+     */
+    public void discard()
+    {
+        this.flushLock.lock();
+        try
+        {
+            this.pendingWrites.clear();
+        }
+        finally
+        {
+            this.flushLock.unlock();
+        }
+    }
+
+    public void close()
+    {
+        this.scheduler.shutdown();
+        ExceptionUtils.executeSilentVoid(() -> this.scheduler.awaitTermination(10, TimeUnit.MINUTES));
+        this.flush();
+    }
+}
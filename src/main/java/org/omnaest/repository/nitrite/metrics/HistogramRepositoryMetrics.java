@@ -0,0 +1,148 @@
+package org.omnaest.repository.nitrite.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In process {@link RepositoryMetrics} which keeps a {@link LatencyHistogram} in nanoseconds per {@link Operation} as well as histograms of
+ * the commit durations, commit batch sizes and compaction durations
+ * 
+ * @see JmxRepositoryMetricsExporter
+ * @author omnaest
+ */
+public class HistogramRepositoryMetrics implements RepositoryMetrics
+{
+    private Map<Operation, LatencyHistogram> operationLatencies = new EnumMap<>(Operation.class);
+    private Map<Operation, LongAdder>        operationFailures  = new EnumMap<>(Operation.class);
+    private LatencyHistogram                 commitDurations    = new LatencyHistogram();
+    private LatencyHistogram                 commitBatchSizes   = new LatencyHistogram();
+    private LongAdder                        mappingExceptions  = new LongAdder();
+    private AtomicLong                       storeFileSize      = new AtomicLong();
+    private AtomicLong                       storeLiveSize      = new AtomicLong();
+    private LatencyHistogram                 compactions        = new LatencyHistogram();
+    private LongAdder                        reclaimedBytes     = new LongAdder();
+
+    public HistogramRepositoryMetrics()
+    {
+        super();
+        for (Operation operation : Operation.values())
+        {
+            this.operationLatencies.put(operation, new LatencyHistogram());
+            this.operationFailures.put(operation, new LongAdder());
+        }
+    }
+
+    @Override
+    public void recordOperation(Operation operation, long durationInNanos, boolean failed)
+    {
+        this.operationLatencies.get(operation)
+                               .record(durationInNanos);
+        if (failed)
+        {
+            this.operationFailures.get(operation)
+                                  .increment();
+        }
+    }
+
+    @Override
+    public void recordCommit(int batchSize, long durationInNanos)
+    {
+        this.commitBatchSizes.record(batchSize);
+        this.commitDurations.record(durationInNanos);
+    }
+
+    @Override
+    public void recordMappingException()
+    {
+        this.mappingExceptions.increment();
+    }
+
+    @Override
+    public void recordStoreFileSize(long sizeInBytes)
+    {
+        this.storeFileSize.set(sizeInBytes);
+    }
+
+    @Override
+    public void recordStoreLiveSize(long sizeInBytes)
+    {
+        this.storeLiveSize.set(sizeInBytes);
+    }
+
+    @Override
+    public void recordCompaction(long reclaimedBytes, long durationInNanos)
+    {
+        this.compactions.record(durationInNanos);
+        this.reclaimedBytes.add(Math.max(0, reclaimedBytes));
+    }
+
+    /**
+     * Returns the {@link LatencyHistogram} of the durations in nanoseconds of the given {@link Operation}
+     * 
+     * @param operation
+     * @return
+     */
+    public LatencyHistogram getOperationLatencies(Operation operation)
+    {
+        return this.operationLatencies.get(operation);
+    }
+
+    public long getOperationFailureCount(Operation operation)
+    {
+        return this.operationFailures.get(operation)
+                                     .sum();
+    }
+
+    /**
+     * Returns the {@link LatencyHistogram} of the commit durations in nanoseconds
+     * 
+     * @return
+     */
+    public LatencyHistogram getCommitDurations()
+    {
+        return this.commitDurations;
+    }
+
+    /**
+     * Returns the {@link LatencyHistogram} of the number of write operations per commit
+     * 
+     * @return
+     */
+    public LatencyHistogram getCommitBatchSizes()
+    {
+        return this.commitBatchSizes;
+    }
+
+    public long getMappingExceptionCount()
+    {
+        return this.mappingExceptions.sum();
+    }
+
+    public long getStoreFileSize()
+    {
+        return this.storeFileSize.get();
+    }
+
+    public long getStoreLiveSize()
+    {
+        return this.storeLiveSize.get();
+    }
+
+    /**
+     * Returns the {@link LatencyHistogram} of the compaction durations in nanoseconds
+     * 
+     * @return
+     */
+    public LatencyHistogram getCompactions()
+    {
+        return this.compactions;
+    }
+
+    public long getReclaimedBytes()
+    {
+        return this.reclaimedBytes.sum();
+    }
+
+}
@@ -0,0 +1,181 @@
+package org.omnaest.repository.nitrite.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics.Operation;
+
+/**
+ * Exports the {@link HistogramRepositoryMetrics} as read only MBean, e.g. "putCount", "putP99Millis" or "commitBatchSizeMax", so they can be
+ * scraped by any JMX client
+ * 
+ * @see #register(String, HistogramRepositoryMetrics)
+ * @author omnaest
+ */
+public class JmxRepositoryMetricsExporter implements DynamicMBean
+{
+    private static final String DOMAIN = "org.omnaest.repository.nitrite";
+
+    private Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+
+    protected JmxRepositoryMetricsExporter(HistogramRepositoryMetrics metrics)
+    {
+        super();
+        for (Operation operation : Operation.values())
+        {
+            String prefix = toCamelCase(operation.name());
+            this.addHistogramAttributes(prefix, () -> metrics.getOperationLatencies(operation));
+            this.attributes.put(prefix + "Failures", () -> metrics.getOperationFailureCount(operation));
+        }
+        this.addHistogramAttributes("commit", () -> metrics.getCommitDurations());
+        this.attributes.put("commitBatchSizeMean", () -> metrics.getCommitBatchSizes()
+                                                                .getMean());
+        this.attributes.put("commitBatchSizeMax", () -> metrics.getCommitBatchSizes()
+                                                               .getMax());
+        this.attributes.put("mappingExceptions", () -> metrics.getMappingExceptionCount());
+        this.attributes.put("storeFileSizeInBytes", () -> metrics.getStoreFileSize());
+        this.attributes.put("storeLiveSizeInBytes", () -> metrics.getStoreLiveSize());
+        this.addHistogramAttributes("compaction", () -> metrics.getCompactions());
+        this.attributes.put("compactionReclaimedBytes", () -> metrics.getReclaimedBytes());
+    }
+
+    private void addHistogramAttributes(String prefix, Supplier<LatencyHistogram> histogram)
+    {
+        this.attributes.put(prefix + "Count", () -> histogram.get()
+                                                             .getCount());
+        this.attributes.put(prefix + "MeanMillis", () -> toMillis(histogram.get()
+                                                                           .getMean()));
+        this.attributes.put(prefix + "P50Millis", () -> toMillis(histogram.get()
+                                                                          .getValueAtPercentile(50)));
+        this.attributes.put(prefix + "P99Millis", () -> toMillis(histogram.get()
+                                                                          .getValueAtPercentile(99)));
+        this.attributes.put(prefix + "MaxMillis", () -> toMillis(histogram.get()
+                                                                          .getMax()));
+    }
+
+    private static double toMillis(double nanos)
+    {
+        return nanos / 1000000.0;
+    }
+
+    private static String toCamelCase(String name)
+    {
+        StringBuilder retval = new StringBuilder();
+        for (String token : name.toLowerCase(Locale.ROOT)
+                                .split("_"))
+        {
+            retval.append(retval.length() == 0 ? token : Character.toUpperCase(token.charAt(0)) + token.substring(1));
+        }
+        return retval.toString();
+    }
+
+    /**
+     * Registers the given {@link HistogramRepositoryMetrics} at the platform {@link MBeanServer} with the object name
+     * "org.omnaest.repository.nitrite:type=RepositoryMetrics,name=&lt;name&gt;"
+     * 
+     * @param name
+     * @param metrics
+     * @return the {@link ObjectName} which can be used to {@link #unregister(ObjectName)} the metrics again
+     */
+    public static ObjectName register(String name, HistogramRepositoryMetrics metrics)
+    {
+        try
+        {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=RepositoryMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer()
+                             .registerMBean(new JmxRepositoryMetricsExporter(metrics), objectName);
+            return objectName;
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException("Unable to register repository metrics: " + name, e);
+        }
+    }
+
+    public static void unregister(ObjectName objectName)
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer()
+                             .unregisterMBean(objectName);
+        }
+        catch (JMException e)
+        {
+            throw new IllegalStateException("Unable to unregister repository metrics: " + objectName, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException
+    {
+        Supplier<Object> supplier = this.attributes.get(attribute);
+        if (supplier == null)
+        {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return supplier.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes)
+    {
+        AttributeList retval = new AttributeList();
+        for (String attribute : attributes)
+        {
+            Supplier<Object> supplier = this.attributes.get(attribute);
+            if (supplier != null)
+            {
+                retval.add(new Attribute(attribute, supplier.get()));
+            }
+        }
+        return retval;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException("Attributes are read only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+    {
+        throw new UnsupportedOperationException("No operations available: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo()
+    {
+        MBeanAttributeInfo[] attributeInfos = this.attributes.entrySet()
+                                                             .stream()
+                                                             .map(entry -> new MBeanAttributeInfo(entry.getKey(), entry.getValue()
+                                                                                                                       .get()
+                                                                                                                       .getClass()
+                                                                                                                       .getName(),
+                                                                                                  entry.getKey(), true, false, false))
+                                                             .toArray(length -> new MBeanAttributeInfo[length]);
+        return new MBeanInfo(this.getClass()
+                                 .getName(),
+                             "Nitrite repository metrics", attributeInfos, null, null, null);
+    }
+
+}
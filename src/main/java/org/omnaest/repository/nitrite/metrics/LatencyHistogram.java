@@ -0,0 +1,114 @@
+package org.omnaest.repository.nitrite.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of non negative long values with log linear buckets similar to the HdrHistogram. Values below 32 are recorded exactly,
+ * larger values are recorded with 16 sub buckets per power of two, which limits the relative error of the percentiles to 1/16.
+ * 
+ * @author omnaest
+ */
+public class LatencyHistogram
+{
+    private static final int LINEAR_BUCKETS       = 32;
+    private static final int SUB_BUCKET_BITS      = 4;
+    private static final int SUB_BUCKETS          = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_EXPONENT       = SUB_BUCKET_BITS + 1;
+    private static final int NUMBER_OF_BUCKETS    = LINEAR_BUCKETS + (63 - FIRST_EXPONENT) * SUB_BUCKETS;
+
+    private AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private LongAdder       count   = new LongAdder();
+    private LongAdder       sum     = new LongAdder();
+    private AtomicLong      max     = new AtomicLong();
+
+    public void record(long value)
+    {
+        long nonNegativeValue = Math.max(0, value);
+        this.buckets.incrementAndGet(bucketIndexOf(nonNegativeValue));
+        this.count.increment();
+        this.sum.add(nonNegativeValue);
+        this.max.accumulateAndGet(nonNegativeValue, Math::max);
+    }
+
+    private static int bucketIndexOf(long value)
+    {
+        if (value < LINEAR_BUCKETS)
+        {
+            return (int) value;
+        }
+        else
+        {
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+            return LINEAR_BUCKETS + (exponent - FIRST_EXPONENT) * SUB_BUCKETS + subBucket;
+        }
+    }
+
+    private static long upperBoundOf(int bucketIndex)
+    {
+        if (bucketIndex < LINEAR_BUCKETS)
+        {
+            return bucketIndex;
+        }
+        else
+        {
+            int exponent = (bucketIndex - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_EXPONENT;
+            int subBucket = (bucketIndex - LINEAR_BUCKETS) % SUB_BUCKETS;
+            long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+            return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    public long getCount()
+    {
+        return this.count.sum();
+    }
+
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    public double getMean()
+    {
+        long count = this.count.sum();
+        return count > 0 ? this.sum.sum() / (double) count : 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile, e.g. 99.0 for the 99th percentile. Returns 0 if no value has been recorded.
+     * 
+     * @param percentile
+     * @return
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = 0;
+        for (int ii = 0; ii < NUMBER_OF_BUCKETS; ii++)
+        {
+            total += this.buckets.get(ii);
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * total));
+        long cumulativeCount = 0;
+        for (int ii = 0; ii < NUMBER_OF_BUCKETS && total > 0; ii++)
+        {
+            cumulativeCount += this.buckets.get(ii);
+            if (cumulativeCount >= rank)
+            {
+                return Math.min(upperBoundOf(ii), this.getMax());
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram [count=" + this.getCount() + ", mean=" + this.getMean() + ", p50=" + this.getValueAtPercentile(50) + ", p99="
+                + this.getValueAtPercentile(99) + ", max=" + this.getMax() + "]";
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.omnaest.repository.nitrite.metrics;
+
+/**
+ * Instrumentation SPI of the {@link org.omnaest.repository.nitrite.NitriteElementRepository}. All methods are called synchronously within
+ * the instrumented operation and must therefore be cheap and thread safe. All methods have an empty default implementation, so an
+ * implementation only has to override the callbacks it is interested in.
+ * 
+ * @see #NOOP
+ * @see HistogramRepositoryMetrics
+ * @author omnaest
+ */
+public interface RepositoryMetrics
+{
+    /**
+     * {@link RepositoryMetrics} which records nothing, this is the default
+     */
+    public static final RepositoryMetrics NOOP = new RepositoryMetrics()
+    {
+    };
+
+    /**
+     * The instrumented repository operations
+     * 
+     * @author omnaest
+     */
+    public static enum Operation
+    {
+        GET, GET_ALL, PUT, PUT_ALL, ADD, ADD_ALL, REMOVE, REMOVE_ALL, SIZE, IDS, TRANSACTION, FLUSH
+    }
+
+    /**
+     * Called before the given {@link Operation} starts within the calling {@link Thread}, e.g. to open a tracing span
+     * 
+     * @param operation
+     */
+    public default void onOperationStart(Operation operation)
+    {
+        // do nothing
+    }
+
+    /**
+     * Called after the given {@link Operation} has finished within the calling {@link Thread}
+     * 
+     * @param operation
+     * @param durationInNanos
+     * @param failed
+     *            true, if the operation has thrown an exception
+     */
+    public default void recordOperation(Operation operation, long durationInNanos, boolean failed)
+    {
+        // do nothing
+    }
+
+    /**
+     * Called after each commit to the store
+     * 
+     * @param batchSize
+     *            number of write operations which have been committed together
+     * @param durationInNanos
+     */
+    public default void recordCommit(int batchSize, long durationInNanos)
+    {
+        // do nothing
+    }
+
+    /**
+     * Called for each element which could not be serialized or deserialized
+     */
+    public default void recordMappingException()
+    {
+        // do nothing
+    }
+
+    /**
+     * Called after each commit with the current size of the store file
+     * 
+     * @param sizeInBytes
+     */
+    public default void recordStoreFileSize(long sizeInBytes)
+    {
+        // do nothing
+    }
+
+    /**
+     * Called after each compaction and compaction check with the estimated number of bytes of the store file which are still in use
+     * 
+     * @param sizeInBytes
+     */
+    public default void recordStoreLiveSize(long sizeInBytes)
+    {
+        // do nothing
+    }
+
+    /**
+     * Called after each compaction of the store
+     * 
+     * @param reclaimedBytes
+     *            number of bytes the store file has shrunk by
+     * @param durationInNanos
+     */
+    public default void recordCompaction(long reclaimedBytes, long durationInNanos)
+    {
+        // do nothing
+    }
+}
@@ -0,0 +1,132 @@
+package org.omnaest.repository.nitrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.dizitart.no2.SortOrder;
+import org.junit.Test;
+import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.utils.FileUtils;
+import org.omnaest.utils.MapUtils;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * @see AsyncElementRepository
+ * @author omnaest
+ */
+public class AsyncElementRepositoryTest
+{
+    @Test
+    public void testAsyncOperations() throws Exception
+    {
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, FileUtils.createRandomTempFile());
+                AsyncElementRepository<Long, String> asyncRepository = new AsyncElementRepository<>(repository).usingBoundedExecutor(4, 100))
+        {
+            Long id = asyncRepository.add("value1")
+                                     .get(10, TimeUnit.SECONDS);
+            asyncRepository.put(10l, "value10")
+                           .get(10, TimeUnit.SECONDS);
+
+            List<CompletableFuture<String>> reads = IntStream.range(0, 10)
+                                                             .mapToObj(index -> asyncRepository.get(id)
+                                                                                               .thenApply(element -> element.get()))
+                                                             .collect(Collectors.toList());
+            for (CompletableFuture<String> read : reads)
+            {
+                assertEquals("value1", read.get(10, TimeUnit.SECONDS));
+            }
+
+            asyncRepository.remove(id)
+                           .get(10, TimeUnit.SECONDS);
+            assertFalse(asyncRepository.get(id)
+                                       .get(10, TimeUnit.SECONDS)
+                                       .isPresent());
+
+            Map<Long, String> elements = MapUtils.builder()
+                                                 .put(20l, "value20")
+                                                 .put(21l, "value21")
+                                                 .build();
+            asyncRepository.putAll(elements)
+                           .get(10, TimeUnit.SECONDS);
+            assertEquals("value21", repository.get(21l)
+                                              .get());
+
+            repository.usingAutoCommit(AutoCommitMode.AUTOCOMMIT_DISABLED);
+            try
+            {
+                asyncRepository.put(30l, "value30")
+                               .get(10, TimeUnit.SECONDS);
+                fail();
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertFalse(repository.get(30l)
+                                  .isPresent());
+        }
+    }
+
+    @Test
+    public void testIdsPublisher() throws IOException, InterruptedException
+    {
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, FileUtils.createRandomTempFile());
+                AsyncElementRepository<Long, String> asyncRepository = new AsyncElementRepository<>(repository))
+        {
+            repository.addAll(IntStream.range(0, 5)
+                                       .mapToObj(index -> "value" + index))
+                      .count();
+
+            List<Long> ids = new ArrayList<>();
+            CompletableFuture<Void> completion = new CompletableFuture<>();
+            asyncRepository.ids(SortOrder.Descending)
+                           .subscribe(new Subscriber<Long>()
+                           {
+                               private Subscription subscription;
+
+                               @Override
+                               public void onSubscribe(Subscription subscription)
+                               {
+                                   this.subscription = subscription;
+                                   subscription.request(1);
+                               }
+
+                               @Override
+                               public void onNext(Long id)
+                               {
+                                   ids.add(id);
+                                   this.subscription.request(1);
+                               }
+
+                               @Override
+                               public void onError(Throwable throwable)
+                               {
+                                   completion.completeExceptionally(throwable);
+                               }
+
+                               @Override
+                               public void onComplete()
+                               {
+                                   completion.complete(null);
+                               }
+                           });
+            completion.join();
+
+            assertEquals(Arrays.asList(4l, 3l, 2l, 1l, 0l), ids);
+        }
+    }
+}
@@ -1,9 +1,26 @@
 package org.omnaest.repository.nitrite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.Test;
 import org.omnaest.utils.FileUtils;
+import org.omnaest.utils.ThreadUtils;
 import org.omnaest.utils.cache.Cache;
 
 public class NitriteCacheTest
@@ -19,4 +36,138 @@ public class NitriteCacheTest
         assertEquals("value1", cache.get("key1", String.class));
     }
 
+    @Test
+    public void testConcurrentComputeIfAbsent() throws Exception
+    {
+        NitriteCache cache = new NitriteCache(FileUtils.createRandomTempFile());
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(20);
+        try
+        {
+            List<Future<String>> values = IntStream.range(0, 20)
+                                                   .mapToObj(index -> executorService.submit(() ->
+                                                   {
+                                                       latch.await();
+                                                       return cache.computeIfAbsent("key1", () ->
+                                                       {
+                                                           computations.incrementAndGet();
+                                                           ThreadUtils.sleepSilently(50, TimeUnit.MILLISECONDS);
+                                                           return "value1";
+                                                       }, String.class);
+                                                   }))
+                                                   .collect(Collectors.toList());
+            latch.countDown();
+            for (Future<String> value : values)
+            {
+                assertEquals("value1", value.get());
+            }
+            assertEquals(1, computations.get());
+
+            assertEquals("value2", cache.computeIfAbsentAsync("key2", () -> "value2", String.class)
+                                        .get(10, TimeUnit.SECONDS));
+            assertEquals("value2", cache.get("key2", String.class));
+        }
+        finally
+        {
+            executorService.shutdown();
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testExpiryAndMaximumSize() throws Exception
+    {
+        AtomicLong clock = new AtomicLong(1000);
+        NitriteCache cache = new NitriteCache(FileUtils.createRandomTempFile()).withClock(clock::get)
+                                                                               .withMaximumSize(3)
+                                                                               .withSweepInterval(1, TimeUnit.HOURS);
+        try
+        {
+            for (int index = 0; index < 5; index++)
+            {
+                cache.put("key" + index, "value" + index);
+                clock.incrementAndGet();
+            }
+            cache.sweep();
+            assertEquals(new HashSet<>(Arrays.asList("key2", "key3", "key4")), new HashSet<>(cache.keySet()));
+            assertEquals(2, cache.getEvictedCount());
+
+            clock.addAndGet(20);
+            cache.withExpireAfterWrite(10, TimeUnit.MILLISECONDS)
+                 .sweep();
+            assertEquals(0, cache.keySet()
+                                 .size());
+            assertEquals(3, cache.getExpiredCount());
+        }
+        finally
+        {
+            cache.close();
+        }
+    }
+
+    private static class Value
+    {
+        private String       name;
+        private List<String> tags;
+
+        @SuppressWarnings("unused")
+        Value()
+        {
+            super();
+        }
+
+        public Value(String name, List<String> tags)
+        {
+            super();
+            this.name = name;
+            this.tags = tags;
+        }
+
+        public String getName()
+        {
+            return this.name;
+        }
+
+        public List<String> getTags()
+        {
+            return this.tags;
+        }
+
+    }
+
+    @Test
+    public void testComplexValue() throws Exception
+    {
+        Cache cache = new NitriteCache(FileUtils.createRandomTempFile());
+
+        cache.put("key1", new Value("value1", Arrays.asList("a", "b")));
+        Value value = cache.get("key1", Value.class);
+        assertEquals("value1", value.getName());
+        assertEquals(Arrays.asList("a", "b"), value.getTags());
+        assertEquals(Value.class, cache.getType("key1"));
+    }
+
+    @Test
+    public void testMetadata() throws Exception
+    {
+        Cache cache = new NitriteCache(FileUtils.createRandomTempFile());
+
+        cache.put("key1", "value1");
+        cache.put("key2", 2);
+
+        assertEquals(String.class, cache.getType("key1"));
+        assertEquals(Integer.class, cache.getType("key2"));
+        assertNotNull(cache.getAge("key1"));
+        assertNull(cache.getAge("key3"));
+        assertEquals(new HashSet<>(Arrays.asList("key1", "key2")), new HashSet<>(cache.keySet()));
+        assertTrue(cache.keySet()
+                        .contains("key2"));
+
+        cache.keySet()
+             .remove("key2");
+        assertTrue(cache.keySet()
+                        .contains("key2"));
+    }
+
 }
@@ -1,16 +1,39 @@
 package org.omnaest.repository.nitrite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
+import javax.management.ObjectName;
+
+import org.dizitart.no2.IndexType;
+import org.dizitart.no2.NitriteId;
+import org.dizitart.no2.SortOrder;
+import org.dizitart.no2.exceptions.UniqueConstraintException;
 import org.junit.Test;
 import org.omnaest.repository.nitrite.NitriteElementRepository.AutoCommitMode;
+import org.omnaest.repository.nitrite.metrics.HistogramRepositoryMetrics;
+import org.omnaest.repository.nitrite.metrics.JmxRepositoryMetricsExporter;
+import org.omnaest.repository.nitrite.metrics.RepositoryMetrics.Operation;
 import org.omnaest.utils.FileUtils;
 import org.omnaest.utils.MapUtils;
 import org.omnaest.utils.repository.IndexElementRepository;
@@ -142,6 +165,186 @@ public class NitriteIndexElementRepositoryTest
 
     }
 
+    @Test
+    public void testSortedIdsAndRanges() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile()))
+        {
+            repository.put(5l, new Domain().setField("value5"));
+            repository.put(1l, new Domain().setField("value1"));
+            repository.put(3l, new Domain().setField("value3"));
+            repository.put(4l, new Domain().setField("value4"));
+
+            assertEquals(Arrays.asList(1l, 3l, 4l, 5l), repository.ids(SortOrder.Ascending)
+                                                                  .collect(Collectors.toList()));
+            assertEquals(Arrays.asList(5l, 4l, 3l, 1l), repository.ids(SortOrder.Descending)
+                                                                  .collect(Collectors.toList()));
+            assertEquals(Arrays.asList(3l, 4l), repository.idsBetween(2l, 4l)
+                                                          .collect(Collectors.toList()));
+            assertEquals(Arrays.asList(4l, 3l, 1l), repository.idsBetween(null, 4l, SortOrder.Descending)
+                                                              .collect(Collectors.toList()));
+            assertEquals(Arrays.asList(5l, 4l), repository.idsBetween(4l, 6l, SortOrder.Descending)
+                                                          .collect(Collectors.toList()));
+            assertEquals(0, repository.idsBetween(6l, 9l)
+                                      .count());
+            assertEquals("value4value5", repository.valuesBetween(4l, null)
+                                                   .map(Domain::getField)
+                                                   .collect(Collectors.joining()));
+        }
+    }
+
+    @Test
+    public void testIdAllocationAfterReopen() throws Exception
+    {
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file))
+        {
+            repository.add(new Domain().setField("value0"));
+            repository.add(new Domain().setField("value1"));
+            repository.put(10l, new Domain().setField("value10"));
+        }
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file))
+        {
+            assertEquals(11l, repository.add(new Domain().setField("value11"))
+                                        .longValue());
+        }
+    }
+
+    @Test
+    public void testIdBlockReservation() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withIdBlockReservation(10))
+        {
+            assertEquals(0l, repository.add(new Domain().setField("value0"))
+                                       .longValue());
+            CompletableFuture.runAsync(() -> repository.put(2l, new Domain().setField("value2")))
+                             .get(10, TimeUnit.SECONDS);
+
+            assertEquals(3l, repository.add(new Domain().setField("value3"))
+                                       .longValue());
+            assertEquals(4l, repository.add(new Domain().setField("value4"))
+                                       .longValue());
+            assertEquals("value2", repository.getValue(2l)
+                                             .getField());
+        }
+    }
+
+    @Test
+    public void testAddAllInChunks() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withBulkChunkSize(4))
+        {
+            List<Long> ids = new ArrayList<>();
+            repository.addAll(IntStream.range(0, 10)
+                                       .mapToObj(index -> new Domain().setField("value" + index)),
+                              ids::add);
+            assertEquals(10, ids.size());
+            assertEquals("value9", repository.getValue(ids.get(9))
+                                             .getField());
+
+            assertEquals("value10value11", repository.addAllLazily(Stream.of(new Domain().setField("value10"), new Domain().setField("value11")))
+                                                     .map(id -> repository.getValue(id)
+                                                                          .getField())
+                                                     .collect(Collectors.joining()));
+            assertEquals(12, repository.size());
+        }
+    }
+
+    @Test
+    public void testPutAllStream() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withBulkChunkSize(3))
+        {
+            repository.putAll(LongStream.range(0, 10)
+                                        .mapToObj(id -> new SimpleEntry<>(id, new Domain().setField("value" + id))));
+            repository.putAll(LongStream.range(5, 15)
+                                        .mapToObj(id -> new SimpleEntry<>(id, new Domain().setField("updated" + id))));
+
+            assertEquals(15, repository.size());
+            assertEquals("value4", repository.getValue(4l)
+                                             .getField());
+            assertEquals("updated5", repository.getValue(5l)
+                                               .getField());
+            assertEquals("updated14", repository.getValue(14l)
+                                                .getField());
+        }
+    }
+
+    @Test
+    public void testPutAllKeepsElementsOnFailure() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withIndex("field", IndexType.Unique))
+        {
+            repository.put(1l, new Domain().setField("a"));
+            repository.put(2l, new Domain().setField("b"));
+            NitriteId internalId = repository.getInternalId(1l);
+
+            try
+            {
+                repository.putAll(Stream.of(new SimpleEntry<>(1l, new Domain().setField("c")), new SimpleEntry<>(3l, new Domain().setField("d")),
+                                            new SimpleEntry<>(4l, new Domain().setField("b"))));
+                fail();
+            }
+            catch (UniqueConstraintException e)
+            {
+                // expected
+            }
+            assertEquals("a", repository.getValue(1l)
+                                        .getField());
+            assertEquals("b", repository.getValue(2l)
+                                        .getField());
+            assertFalse(repository.containsId(3l));
+            assertFalse(repository.containsId(4l));
+
+            repository.putAll(Stream.of(new SimpleEntry<>(1l, new Domain().setField("c")), new SimpleEntry<>(3l, new Domain().setField("d"))));
+            assertEquals("c", repository.getValue(1l)
+                                        .getField());
+            assertEquals("d", repository.getValue(3l)
+                                        .getField());
+            assertEquals(internalId, repository.getInternalId(1l));
+        }
+    }
+
+    @Test
+    public void testTransactionKeepsElementsOnFailure() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withIndex("field", IndexType.Unique))
+        {
+            repository.put(1l, new Domain().setField("a"));
+            repository.put(2l, new Domain().setField("b"));
+            repository.put(3l, new Domain().setField("c"));
+            NitriteId internalId1 = repository.getInternalId(1l);
+            NitriteId internalId3 = repository.getInternalId(3l);
+
+            try
+            {
+                repository.inTransaction(transaction ->
+                {
+                    transaction.put(1l, new Domain().setField("d"));
+                    transaction.remove(3l);
+                    transaction.put(4l, new Domain().setField("b"));
+                });
+                fail();
+            }
+            catch (UniqueConstraintException e)
+            {
+                // expected
+            }
+            assertEquals("a", repository.getValue(1l)
+                                        .getField());
+            assertEquals("c", repository.getValue(3l)
+                                        .getField());
+            assertFalse(repository.containsId(4l));
+            assertEquals(internalId1, repository.getInternalId(1l));
+            assertEquals(internalId3, repository.getInternalId(3l));
+        }
+    }
+
     private static class SetDomain extends HashSet<String>
     {
         private static final long serialVersionUID = 6926794468284034605L;
@@ -190,4 +393,632 @@ public class NitriteIndexElementRepositoryTest
         }
     }
 
+    @Test
+    public void testElementCache() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withElementCache(2))
+        {
+            repository.put(1l, new Domain().setField("value1"));
+            repository.put(2l, new Domain().setField("value2"));
+            repository.put(3l, new Domain().setField("value3"));
+
+            assertEquals("value1", repository.getValue(1l)
+                                             .getField());
+            assertEquals("value1", repository.getValue(1l)
+                                             .getField());
+
+            repository.put(1l, new Domain().setField("value1b"));
+            assertEquals("value1b", repository.getValue(1l)
+                                              .getField());
+
+            assertEquals(3, repository.getAll(1l, 2l, 3l)
+                                      .size());
+            repository.remove(2l);
+            assertEquals(null, repository.getValue(2l));
+
+            ElementCache.Statistics statistics = repository.getElementCacheStatistics()
+                                                           .get();
+            assertEquals(2, statistics.getHits());
+            assertEquals(2, statistics.getSize());
+            assertTrue(statistics.getEvictions() > 0);
+        }
+    }
+
+    @Test
+    public void testElementCacheConcurrentHits() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withElementCache(1000))
+        {
+            repository.putAll(LongStream.range(0, 2000)
+                                        .boxed()
+                                        .collect(Collectors.toMap(id -> id, id -> new Domain().setId(id))));
+            LongStream.range(0, 8000)
+                      .parallel()
+                      .forEach(index -> assertEquals(index % 500, repository.getValue(index % 500)
+                                                                              .getId()));
+
+            ElementCache.Statistics statistics = repository.getElementCacheStatistics()
+                                                           .get();
+            assertEquals(500, statistics.getSize());
+            assertEquals(8000, statistics.getHits() + statistics.getMisses());
+            assertTrue(statistics.getHits() > statistics.getMisses());
+
+            LongStream.range(500, 2000)
+                      .parallel()
+                      .forEach(id -> repository.getValue(id));
+            assertTrue(repository.getElementCacheStatistics()
+                                 .get()
+                                 .getSize() <= 1000);
+        }
+    }
+
+    @Test
+    public void testIdsWithoutDeserialization() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file))
+        {
+            repository.addAll(new Domain().setField("value1"), new Domain().setField("value2"), new Domain().setField("value3"))
+                      .count();
+        }
+
+        // the stored elements can not be deserialized as Integer, so only the id index must be read
+        try (NitriteIndexElementRepository<Integer> repository = new NitriteIndexElementRepository<>(Integer.class, file))
+        {
+            assertEquals(new HashSet<>(Arrays.asList(0l, 1l, 2l)), repository.ids()
+                                                                              .collect(Collectors.toSet()));
+            assertEquals(Arrays.asList(2l, 1l, 0l), repository.ids(SortOrder.Descending)
+                                                              .collect(Collectors.toList()));
+            assertTrue(repository.containsId(1l));
+            assertFalse(repository.containsId(3l));
+        }
+    }
+
+    @Test
+    public void testSnapshotAndExport() throws IOException
+    {
+        File exportFile = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile()))
+        {
+            repository.put(1l, new Domain().setField("value1"));
+            repository.put(2l, new Domain().setField("value2"));
+
+            try (NitriteRepositorySnapshot<Long, Domain> snapshot = repository.openSnapshot())
+            {
+                repository.put(1l, new Domain().setField("changed"));
+                repository.remove(2l);
+                repository.put(3l, new Domain().setField("value3"));
+
+                assertEquals("value1", snapshot.get(1l)
+                                               .get()
+                                               .getField());
+                assertEquals("value2", snapshot.get(2l)
+                                               .get()
+                                               .getField());
+                assertFalse(snapshot.get(3l)
+                                    .isPresent());
+                assertEquals(Arrays.asList(1l, 2l), snapshot.ids()
+                                                            .collect(Collectors.toList()));
+                assertEquals(2, snapshot.size());
+                assertEquals(2, snapshot.exportTo(exportFile));
+            }
+        }
+
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withBulkChunkSize(1))
+        {
+            repository.put(2l, new Domain().setField("outdated"));
+
+            assertEquals(2, repository.importFrom(exportFile));
+            assertEquals(2, repository.size());
+            assertEquals("value1", repository.getValue(1l)
+                                             .getField());
+            assertEquals("value2", repository.getValue(2l)
+                                             .getField());
+            assertEquals(3l, repository.add(new Domain().setField("value3"))
+                                       .longValue());
+        }
+    }
+
+    @Test
+    public void testTransaction() throws IOException
+    {
+        HistogramRepositoryMetrics metrics = new HistogramRepositoryMetrics();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withMetrics(metrics))
+        {
+            repository.put(1l, new Domain().setField("value1"));
+            repository.put(2l, new Domain().setField("value2"));
+            long commitCount = metrics.getCommitDurations()
+                                      .getCount();
+
+            repository.inTransaction(transaction ->
+            {
+                transaction.remove(1l);
+                transaction.put(2l, new Domain().setField("changed"));
+                transaction.put(3l, new Domain().setField("value3"));
+                assertFalse(transaction.get(1l)
+                                       .isPresent());
+                assertEquals("changed", transaction.get(2l)
+                                                   .get()
+                                                   .getField());
+            });
+            assertEquals(commitCount + 1, metrics.getCommitDurations()
+                                                 .getCount());
+            assertFalse(repository.get(1l)
+                                  .isPresent());
+            assertEquals("changed", repository.getValue(2l)
+                                              .getField());
+            assertEquals("value3", repository.getValue(3l)
+                                             .getField());
+
+            try
+            {
+                repository.inTransaction(transaction ->
+                {
+                    transaction.remove(2l);
+                    throw new IllegalStateException("rollback");
+                });
+                fail();
+            }
+            catch (IllegalStateException e)
+            {
+                // expected
+            }
+            assertEquals("changed", repository.getValue(2l)
+                                              .getField());
+            assertEquals(2, repository.size());
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        HistogramRepositoryMetrics metrics = new HistogramRepositoryMetrics();
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, file).withMetrics(metrics))
+        {
+            String payload = IntStream.range(0, 1000)
+                                      .mapToObj(index -> "x")
+                                      .collect(Collectors.joining());
+            for (int round = 0; round < 3; round++)
+            {
+                for (long id = 0; id < 200; id++)
+                {
+                    repository.put(id, payload + round);
+                }
+            }
+            LongStream.range(0, 190)
+                      .forEach(repository::remove);
+
+            long fileSize = file.length();
+            assertTrue(repository.compact() > 0);
+            assertTrue(file.length() < fileSize);
+            assertTrue(metrics.getReclaimedBytes() > 0);
+            assertTrue(metrics.getStoreLiveSize() > 0);
+            assertTrue(metrics.getStoreLiveSize() <= metrics.getStoreFileSize());
+            assertEquals(10, repository.size());
+            assertEquals(payload + 2, repository.getValue(195l));
+        }
+    }
+
+    @Test
+    public void testElementCodec() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file))
+        {
+            repository.put(1l, new Domain().setId(1)
+                                           .setField("value1"));
+        }
+
+        ElementCodec<Domain> fieldOnlyCodec = new ElementCodec<Domain>()
+        {
+            @Override
+            public Object encode(Domain element)
+            {
+                return element.getField();
+            }
+
+            @Override
+            public Domain decode(Object value)
+            {
+                return value instanceof String ? new Domain().setField((String) value) : new JacksonElementCodec<>(Domain.class).decode(value);
+            }
+        };
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file).withElementCodec(fieldOnlyCodec))
+        {
+            assertEquals(1, repository.getValue(1l)
+                                      .getId());
+            repository.put(2l, new Domain().setId(2)
+                                           .setField("value2"));
+            assertEquals("value2", repository.getValue(2l)
+                                             .getField());
+        }
+
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, file))
+        {
+            assertEquals("value2", repository.getValue(2l));
+        }
+
+        assertEquals(Long.valueOf(5), new JacksonElementCodec<>(Long.class).decode(5));
+        assertEquals("value", new JacksonElementCodec<>(String.class).encode("value"));
+    }
+
+    @Test
+    public void testChunkedParallelGetAll() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file))
+        {
+            repository.putAll(LongStream.range(0, 2500)
+                                        .boxed()
+                                        .collect(Collectors.toMap(id -> id, id -> new Domain().setId(id.intValue()))));
+        }
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, file))
+        {
+            repository.put(2500l, "not a domain");
+        }
+
+        AtomicInteger mappingExceptions = new AtomicInteger();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file).withReadChunkSize(100)
+                                                                                                                       .usingParallelReads())
+        {
+            repository.withMappingExceptionHandler(e -> mappingExceptions.incrementAndGet());
+
+            List<Long> ids = LongStream.range(0, 2600)
+                                       .boxed()
+                                       .collect(Collectors.toList());
+            Map<Long, Domain> elements = repository.getAll(ids);
+            assertEquals(2500, elements.size());
+            assertEquals(1234, elements.get(1234l)
+                                       .getId());
+            assertEquals(1, mappingExceptions.get());
+
+            assertEquals(2500, repository.getAll(ids.stream())
+                                         .filter(entry -> entry.getKey()
+                                                               .intValue() == entry.getValue()
+                                                                                   .getId())
+                                         .count());
+            assertEquals(2, mappingExceptions.get());
+        }
+    }
+
+    @Test
+    public void testMappedIdIndex() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, file).usingMappedIdIndex())
+        {
+            repository.put(1l, "value1");
+            repository.put(2l, "value2");
+            repository.putAll(MapUtils.builder()
+                                      .put(3l, "value3")
+                                      .put(2000000l, "value2000000")
+                                      .build());
+            repository.remove(2l);
+
+            assertEquals("value1", repository.get(1l)
+                                             .get());
+            assertFalse(repository.get(2l)
+                                  .isPresent());
+            assertTrue(repository.containsId(2000000l));
+            assertFalse(repository.containsId(4l));
+            assertEquals(Arrays.asList(1l, 3l, 2000000l), repository.longIdsBetween(0, Long.MAX_VALUE)
+                                                                   .boxed()
+                                                                   .collect(Collectors.toList()));
+            assertEquals(3, repository.size());
+        }
+        assertTrue(new File(file.getPath() + ".ids").exists());
+
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, file))
+        {
+            repository.put(4l, "value4");
+        }
+
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, file).usingMappedIdIndex())
+        {
+            assertEquals(Arrays.asList("value3", "value4"), repository.valuesBetween(2, 4)
+                                                                      .collect(Collectors.toList()));
+            assertEquals(4, repository.size());
+
+            repository.put(-1l, "negative");
+            assertEquals("negative", repository.get(-1l)
+                                               .get());
+            assertEquals(5, repository.size());
+            assertEquals(Arrays.asList(-1l, 1l, 3l, 4l), repository.longIdsBetween(-10, 10)
+                                                                   .boxed()
+                                                                   .collect(Collectors.toList()));
+
+            repository.clear();
+            assertEquals(0, repository.size());
+            assertFalse(repository.containsId(1l));
+        }
+    }
+
+    @Test
+    public void testValueLog() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        File valueLogDirectory = new File(file.getPath() + ".vlog");
+        File exportFile = FileUtils.createRandomTempFile();
+        String largeValue = new String(new char[500]).replace('\0', 'x');
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file).usingValueLog(valueLogDirectory,
+                                                                                                                                      100, 4096))
+        {
+            repository.put(0l, new Domain().setField("small"));
+            LongStream.range(1, 50)
+                      .forEach(id -> repository.put(id, new Domain().setId(id)
+                                                                    .setField(largeValue)));
+            assertTrue(valueLogDirectory.list().length > 2);
+
+            LongStream.range(1, 40)
+                      .forEach(id -> repository.put(id, new Domain().setId(id)
+                                                                    .setField("changed" + largeValue)));
+            int numberOfSegments = valueLogDirectory.list().length;
+            try (NitriteRepositorySnapshot<Long, Domain> snapshot = repository.openSnapshot())
+            {
+                assertEquals(0, repository.compactValueLog());
+                assertEquals(numberOfSegments, valueLogDirectory.list().length);
+                assertEquals(largeValue, snapshot.get(45l)
+                                                 .get()
+                                                 .getField());
+            }
+            assertTrue(repository.compactValueLog() > 0);
+            assertEquals(numberOfSegments, valueLogDirectory.list().length);
+            assertEquals(0, repository.compactValueLog());
+            assertTrue(valueLogDirectory.list().length < numberOfSegments);
+
+            assertEquals("small", repository.getValue(0l)
+                                            .getField());
+            assertEquals("changed" + largeValue, repository.getValue(1l)
+                                                           .getField());
+            assertEquals(largeValue, repository.getValue(49l)
+                                               .getField());
+            assertEquals(50, repository.exportTo(exportFile));
+        }
+
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file).usingValueLog(valueLogDirectory,
+                                                                                                                                      100, 4096))
+        {
+            assertEquals(largeValue, repository.getValue(45l)
+                                               .getField());
+        }
+
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile()))
+        {
+            assertEquals(50, repository.importFrom(exportFile));
+            assertEquals("changed" + largeValue, repository.getValue(39l)
+                                                           .getField());
+        }
+    }
+
+    @Test
+    public void testWriteBehind() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        HistogramRepositoryMetrics metrics = new HistogramRepositoryMetrics();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file).withMetrics(metrics)
+                                                                                                                    .usingWriteBehind(1, TimeUnit.HOURS,
+                                                                                                                                      1000))
+        {
+            LongStream.range(0, 100)
+                      .forEach(counter -> repository.put(1l, new Domain().setId(counter)));
+            repository.put(2l, new Domain().setField("removed"));
+            repository.remove(2l);
+
+            assertEquals(99, repository.getValue(1l)
+                                       .getId());
+            assertFalse(repository.containsId(2l));
+            assertEquals(1, repository.getAll(Arrays.asList(1l, 2l))
+                                      .size());
+            assertEquals(0, metrics.getCommitDurations()
+                                   .getCount());
+
+            assertEquals(1, repository.size());
+            assertEquals(1, metrics.getOperationLatencies(Operation.FLUSH)
+                                   .getCount());
+            assertEquals(1, metrics.getCommitDurations()
+                                   .getCount());
+            repository.put(1l, new Domain().setId(100));
+        }
+
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file))
+        {
+            assertEquals(100, repository.getValue(1l)
+                                        .getId());
+            assertEquals(1, repository.size());
+        }
+    }
+
+    @Test
+    public void testSecondaryIndexes() throws IOException
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withIndex("field", IndexType.NonUnique)
+                                                                                                                           .withIndex("id", IndexType.Unique))
+        {
+            repository.put(1l, new Domain().setId(1).setField("red"));
+            repository.put(2l, new Domain().setId(2).setField("green"));
+            repository.put(3l, new Domain().setId(3).setField("red"));
+
+            assertEquals(new HashSet<>(Arrays.asList(1l, 3l)), repository.findIdsByIndex("field", "red")
+                                                                           .collect(Collectors.toSet()));
+            assertEquals(Arrays.asList("green"), repository.findByIndex("field", "green")
+                                                           .map(Domain::getField)
+                                                           .collect(Collectors.toList()));
+            assertEquals(0, repository.findIdsByIndex("field", "blue")
+                                      .count());
+
+            try
+            {
+                repository.put(4l, new Domain().setId(1).setField("blue"));
+                fail();
+            }
+            catch (UniqueConstraintException e)
+            {
+                // expected
+            }
+            assertEquals(3, repository.size());
+
+            repository.clear();
+            repository.put(1l, new Domain().setId(1).setField("red"));
+            try
+            {
+                repository.put(2l, new Domain().setId(1).setField("blue"));
+                fail();
+            }
+            catch (UniqueConstraintException e)
+            {
+                // expected
+            }
+            assertEquals(1, repository.size());
+            assertEquals(Arrays.asList(1l), repository.findIdsByIndex("field", "red")
+                                                      .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testFullTextIndex() throws IOException
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withIndex("field", IndexType.Fulltext))
+        {
+            repository.add(new Domain().setField("the quick brown fox"));
+            repository.add(new Domain().setField("the lazy dog"));
+
+            assertEquals(Arrays.asList(0l), repository.findIdsByText("field", "quick")
+                                                      .collect(Collectors.toList()));
+            assertEquals(Arrays.asList("the lazy dog"), repository.findByText("field", "laz*")
+                                                                  .map(Domain::getField)
+                                                                  .collect(Collectors.toList()));
+
+            repository.clear();
+            repository.put(5l, new Domain().setField("the quick cat"));
+            assertEquals(Arrays.asList(5l), repository.findIdsByText("field", "quick")
+                                                      .collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void testRepositoryOptions() throws IOException
+    {
+        File file = FileUtils.createRandomTempFile();
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file,
+                                                                                                    new NitriteRepositoryOptions().withCompression(false)
+                                                                                                                                  .withCacheSize(4)))
+        {
+            repository.add(new Domain().setField("value1"));
+        }
+
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, file,
+                                                                                                    new NitriteRepositoryOptions().readOnly()))
+        {
+            assertEquals("value1", repository.get(0l)
+                                             .get()
+                                             .getField());
+            try
+            {
+                repository.add(new Domain().setField("value2"));
+                fail();
+            }
+            catch (IllegalStateException e)
+            {
+                // expected
+            }
+            try
+            {
+                repository.clear();
+                fail();
+            }
+            catch (IllegalStateException e)
+            {
+                // expected
+            }
+            assertEquals(1, repository.size());
+        }
+
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, null,
+                                                                                                    new NitriteRepositoryOptions().inMemory()))
+        {
+            assertEquals(0l, repository.add(new Domain().setField("value1"))
+                                       .longValue());
+            assertEquals(1, repository.size());
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception
+    {
+        HistogramRepositoryMetrics metrics = new HistogramRepositoryMetrics();
+        try (NitriteIndexElementRepository<String> repository = new NitriteIndexElementRepository<>(String.class, FileUtils.createRandomTempFile())
+                                                                                                                           .withMetrics(metrics))
+        {
+            Long id = repository.add("value1");
+            repository.put(id, "value2");
+            assertEquals("value2", repository.get(id)
+                                             .get());
+            repository.putAll(MapUtils.builder()
+                                      .put(10L, "value10")
+                                      .put(11L, "value11")
+                                      .build());
+            assertEquals(3, repository.size());
+
+            assertEquals(1, metrics.getOperationLatencies(Operation.ADD)
+                                   .getCount());
+            assertEquals(1, metrics.getOperationLatencies(Operation.PUT)
+                                   .getCount());
+            assertEquals(1, metrics.getOperationLatencies(Operation.GET)
+                                   .getCount());
+            assertEquals(1, metrics.getOperationLatencies(Operation.PUT_ALL)
+                                   .getCount());
+            assertEquals(0, metrics.getOperationFailureCount(Operation.GET));
+            assertEquals(3, metrics.getCommitDurations()
+                                   .getCount());
+            assertTrue(metrics.getOperationLatencies(Operation.GET)
+                              .getValueAtPercentile(99) > 0);
+            assertTrue(metrics.getStoreFileSize() > 0);
+
+            ObjectName objectName = JmxRepositoryMetricsExporter.register("testMetrics", metrics);
+            try
+            {
+                assertEquals(1L, ManagementFactory.getPlatformMBeanServer()
+                                                  .getAttribute(objectName, "putAllCount"));
+                assertEquals(3L, ManagementFactory.getPlatformMBeanServer()
+                                                  .getAttribute(objectName, "commitCount"));
+            }
+            finally
+            {
+                JmxRepositoryMetricsExporter.unregister(objectName);
+            }
+        }
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception
+    {
+        try (NitriteIndexElementRepository<Domain> repository = new NitriteIndexElementRepository<>(Domain.class, FileUtils.createRandomTempFile())
+                                                                                                                           .usingGroupCommit(5, TimeUnit.MILLISECONDS,
+                                                                                                                                             100))
+        {
+            List<CompletableFuture<Void>> acknowledgements = LongStream.range(0, 250)
+                                                                       .mapToObj(id -> repository.putAcknowledged(id, new Domain().setField("value" + id)))
+                                                                       .collect(Collectors.toList());
+            for (CompletableFuture<Void> acknowledgement : acknowledgements)
+            {
+                acknowledgement.get(10, TimeUnit.SECONDS);
+            }
+
+            repository.usingGroupCommit(1, TimeUnit.MILLISECONDS, 1);
+            repository.putAcknowledged(250l, new Domain().setField("value250"))
+                      .get(10, TimeUnit.SECONDS);
+
+            assertEquals(251, repository.size());
+            assertEquals("value42", repository.getValue(42l)
+                                              .getField());
+        }
+    }
+
 }
@@ -0,0 +1,107 @@
+package org.omnaest.repository.nitrite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.dizitart.no2.SortOrder;
+import org.junit.Test;
+
+/**
+ * @see ShardedNitriteElementRepository
+ * @author omnaest
+ */
+public class ShardedNitriteElementRepositoryTest
+{
+    @Test
+    public void testShardingAndResharding() throws IOException
+    {
+        File directory = Files.createTempDirectory("shards")
+                              .toFile();
+        try (ShardedNitriteIndexElementRepository<String> repository = new ShardedNitriteIndexElementRepository<>(String.class, directory, 3))
+        {
+            List<Long> ids = repository.addAll(IntStream.range(0, 100)
+                                                        .mapToObj(index -> "value" + index))
+                                       .collect(Collectors.toList());
+            assertEquals(LongStream.range(0, 100)
+                                   .boxed()
+                                   .collect(Collectors.toList()),
+                         ids);
+            repository.put(200l, "value200");
+            assertEquals(201l, repository.add("value201")
+                                         .longValue());
+
+            assertEquals(102, repository.size());
+            assertEquals("value42", repository.getValue(42l));
+            Map<Long, String> elements = repository.getAll(Arrays.asList(1l, 2l, 3l, 300l));
+            assertEquals(3, elements.size());
+            assertEquals("value3", elements.get(3l));
+
+            List<Long> sortedIds = repository.ids(SortOrder.Descending)
+                                             .collect(Collectors.toList());
+            assertEquals(102, sortedIds.size());
+            assertEquals(Arrays.asList(201l, 200l, 99l), sortedIds.subList(0, 3));
+        }
+
+        ShardedNitriteElementRepository.reshard(String.class, directory, 3, 5, new NitriteRepositoryOptions());
+
+        try (ShardedNitriteIndexElementRepository<String> repository = new ShardedNitriteIndexElementRepository<>(String.class, directory, 5))
+        {
+            assertEquals(5, directory.listFiles((dir, name) -> name.endsWith(".db")).length);
+            assertEquals(0, directory.listFiles((dir, name) -> name.startsWith("resharding")).length);
+            assertEquals(102, repository.size());
+            assertEquals("value42", repository.getValue(42l));
+            assertEquals(202l, repository.add("value202")
+                                         .longValue());
+        }
+    }
+
+    @Test
+    public void testAddAllWithIdConsumer() throws IOException
+    {
+        File directory = Files.createTempDirectory("shards")
+                              .toFile();
+        try (ShardedNitriteIndexElementRepository<String> repository = new ShardedNitriteIndexElementRepository<>(String.class, directory, 3))
+        {
+            List<Long> ids = new ArrayList<>();
+            repository.withBulkChunkSize(7)
+                      .addAll(IntStream.range(0, 20)
+                                       .mapToObj(index -> "value" + index),
+                              ids::add);
+            assertEquals(LongStream.range(0, 20)
+                                   .boxed()
+                                   .collect(Collectors.toList()),
+                         ids);
+            assertEquals(20, repository.size());
+            assertEquals("value13", repository.getValue(13l));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReshardingRejectsSideFiles() throws IOException
+    {
+        File directory = Files.createTempDirectory("shards")
+                              .toFile();
+        new ShardedNitriteIndexElementRepository<>(String.class, directory, 2).close();
+        Files.createDirectory(new File(directory, "shard-0-of-2.db.vlog").toPath());
+        ShardedNitriteElementRepository.reshard(String.class, directory, 2, 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNumberOfShardsMismatch() throws IOException
+    {
+        File directory = Files.createTempDirectory("shards")
+                              .toFile();
+        new ShardedNitriteIndexElementRepository<>(String.class, directory, 2).close();
+        new ShardedNitriteIndexElementRepository<>(String.class, directory, 4).close();
+    }
+}